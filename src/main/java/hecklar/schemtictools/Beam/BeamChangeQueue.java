@@ -0,0 +1,90 @@
+package hecklar.schemtictools.Beam;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Columns and chunks whose blocks changed in the client world since the beams were last checked.
+ * Block changes are reported by {@code WorldMixin}, chunk loads by the chunk events; the tick handler
+ * drains both and re-checks just those columns. Everything here runs on the client thread.
+ */
+public class BeamChangeQueue {
+    private static final LongSet dirtyColumns = new LongOpenHashSet();
+    private static final LongSet loadedChunks = new LongOpenHashSet();
+    private static boolean tracking = false;
+
+    /**
+     * Only collect changes while beams are shown, so block updates cost nothing otherwise
+     */
+    public static void setTracking(boolean value) {
+        tracking = value;
+        if (!value) {
+            clear();
+        }
+    }
+
+    public static void markBlock(BlockPos pos) {
+        if (tracking) {
+            dirtyColumns.add(columnKey(pos.getX(), pos.getZ()));
+        }
+    }
+
+    public static void markChunk(ChunkPos pos) {
+        if (tracking) {
+            loadedChunks.add(pos.toLong());
+        }
+    }
+
+    /**
+     * A chunk that unloads before its load was handled has nothing left to check
+     */
+    public static void dropChunk(ChunkPos pos) {
+        loadedChunks.remove(pos.toLong());
+    }
+
+    public static boolean isEmpty() {
+        return dirtyColumns.isEmpty() && loadedChunks.isEmpty();
+    }
+
+    /**
+     * Hand over every loaded chunk and changed column, then forget them
+     */
+    public static void drain(LongConsumer chunks, LongConsumer columns) {
+        if (!loadedChunks.isEmpty()) {
+            long[] pending = loadedChunks.toLongArray();
+            loadedChunks.clear();
+            for (long chunk : pending) {
+                chunks.accept(chunk);
+            }
+        }
+
+        if (!dirtyColumns.isEmpty()) {
+            long[] pending = dirtyColumns.toLongArray();
+            dirtyColumns.clear();
+            for (long column : pending) {
+                columns.accept(column);
+            }
+        }
+    }
+
+    public static void clear() {
+        dirtyColumns.clear();
+        loadedChunks.clear();
+    }
+
+    public static long columnKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public static int columnX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int columnZ(long key) {
+        return (int) key;
+    }
+}
@@ -0,0 +1,110 @@
+package hecklar.schemtictools.Beam;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The top schematic block of every column in a placement, packed into flat arrays over the placement's
+ * X/Z bounds. Beams only ever look at the top block, so one int per column holds its height and
+ * expected state, {@code (y - minY) << STATE_BITS | stateId}, and a bit set tracks which columns are done.
+ * A 1024x1024 map art takes about 4 MB.
+ */
+public class BeamColumnStore {
+    private static final int STATE_BITS = 19;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+    private static final int MAX_HEIGHT = 1 << (31 - STATE_BITS);
+    private static final int NO_BLOCK = -1;
+
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int sizeX;
+    private final int sizeZ;
+    private final int[] columns;
+    private final BitSet complete;
+
+    public BeamColumnStore(int minX, int minY, int minZ, int sizeX, int sizeZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.sizeX = sizeX;
+        this.sizeZ = sizeZ;
+        this.columns = new int[sizeX * sizeZ];
+        this.complete = new BitSet(columns.length);
+        Arrays.fill(columns, NO_BLOCK);
+    }
+
+    /**
+     * Record a schematic block, keeping it only if it is the highest one seen in its column
+     */
+    public void offer(int x, int y, int z, BlockState state) {
+        int index = indexOf(x, z);
+        if (index < 0) {
+            throw new IllegalArgumentException("Block outside the placement bounds: " + x + ", " + z);
+        }
+
+        int height = y - minY;
+        int stateId = Block.getRawIdFromState(state);
+        if (height < 0 || height >= MAX_HEIGHT || stateId > STATE_MASK) {
+            throw new IllegalArgumentException("Block can't be packed: y " + y + ", state id " + stateId);
+        }
+
+        int column = columns[index];
+        if (column != NO_BLOCK && (column >>> STATE_BITS) >= height) {
+            return;
+        }
+        columns[index] = (height << STATE_BITS) | stateId;
+    }
+
+    /**
+     * Column index for a world X/Z, or -1 when it is outside the placement or has no block
+     */
+    public int find(int x, int z) {
+        int index = indexOf(x, z);
+        return index >= 0 && columns[index] != NO_BLOCK ? index : -1;
+    }
+
+    private int indexOf(int x, int z) {
+        int localX = x - minX;
+        int localZ = z - minZ;
+        if (localX < 0 || localX >= sizeX || localZ < 0 || localZ >= sizeZ) {
+            return -1;
+        }
+        return localZ * sizeX + localX;
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    public boolean hasBlock(int index) {
+        return columns[index] != NO_BLOCK;
+    }
+
+    public int getX(int index) {
+        return minX + index % sizeX;
+    }
+
+    public int getZ(int index) {
+        return minZ + index / sizeX;
+    }
+
+    public int getTopY(int index) {
+        return minY + (columns[index] >>> STATE_BITS);
+    }
+
+    public BlockState getExpectedState(int index) {
+        return Block.getStateFromRawId(columns[index] & STATE_MASK);
+    }
+
+    public boolean isComplete(int index) {
+        return complete.get(index);
+    }
+
+    public void setComplete(int index, boolean value) {
+        complete.set(index, value);
+    }
+}
@@ -7,6 +7,7 @@ import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
 import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.client.MinecraftClient;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtList;
 import net.minecraft.util.math.BlockPos;
@@ -17,9 +18,12 @@ import fi.dy.masa.litematica.schematic.LitematicaSchematic;
 import fi.dy.masa.litematica.data.DataManager;
 import fi.dy.masa.malilib.gui.Message.MessageType;
 import fi.dy.masa.malilib.util.InfoUtils;
+import hecklar.schemtictools.Scan.JobManager;
 
 import java.io.File;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 
 public class ConvertCommand {
@@ -79,8 +83,40 @@ public class ConvertCommand {
     }
 
     private static int convertDirectory(File directory, boolean recursive, FabricClientCommandSource source) {
-        int successCount = 0;
-        int failureCount = 0;
+        // Walking the tree and converting many files runs as a cancellable background job;
+        // each conversion reads the player's world, so the file itself is converted on the client thread
+        JobManager.start("convert " + directory.getName(), source, job -> {
+            List<File> nbtFiles = findNbtFiles(directory, recursive);
+
+            long totalBytes = 0;
+            for (File file : nbtFiles) {
+                totalBytes += file.length();
+            }
+            job.setTotals(nbtFiles.size(), totalBytes);
+
+            int successCount = 0;
+            int failureCount = 0;
+
+            for (File file : nbtFiles) {
+                job.checkCancelled();
+
+                int converted = MinecraftClient.getInstance().submit(() -> convertSingleFile(file, source)).join();
+                if (converted > 0) {
+                    successCount++;
+                } else {
+                    failureCount++;
+                }
+                job.fileDone(file.length());
+            }
+
+            String summary = String.format("Conversion complete. Success: %d, Failed: %d", successCount, failureCount);
+            MinecraftClient.getInstance().execute(() -> InfoUtils.showGuiOrInGameMessage(MessageType.INFO, summary));
+        });
+        return 1;
+    }
+
+    private static List<File> findNbtFiles(File directory, boolean recursive) {
+        List<File> nbtFiles = new ArrayList<>();
         Queue<File> directories = new ArrayDeque<>();
         directories.add(directory);
 
@@ -93,19 +129,13 @@ public class ConvertCommand {
                     if (file.isDirectory() && recursive) {
                         directories.add(file);
                     } else if (file.getName().endsWith(".nbt")) {
-                        if (convertSingleFile(file, source) > 0) {
-                            successCount++;
-                        } else {
-                            failureCount++;
-                        }
+                        nbtFiles.add(file);
                     }
                 }
             }
         }
 
-        InfoUtils.showGuiOrInGameMessage(MessageType.INFO,
-                String.format("Conversion complete. Success: %d, Failed: %d", successCount, failureCount));
-        return successCount;
+        return nbtFiles;
     }
 
     private static int convertSingleFile(File nbtFile, FabricClientCommandSource source) {
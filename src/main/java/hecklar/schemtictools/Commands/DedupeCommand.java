@@ -0,0 +1,330 @@
+package hecklar.schemtictools.Commands;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+import fi.dy.masa.litematica.data.DataManager;
+import hecklar.schemtictools.Index.FileStamp;
+import hecklar.schemtictools.Scan.JobManager;
+import hecklar.schemtictools.Scan.ScanExecutor;
+import hecklar.schemtictools.Scan.ScanJob;
+import hecklar.schemtictools.Similarity.FingerprintStore;
+import hecklar.schemtictools.Similarity.MinHashIndex;
+import hecklar.schemtictools.Similarity.MinHasher;
+import hecklar.schemtictools.Similarity.TopLayerComparator;
+import hecklar.schemtictools.Similarity.TopLayerGrid;
+import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
+import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.text.Text;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Command to find groups of near-duplicate schematics in a whole directory
+ * Usage: /tools dedupe [min <percent>] <directory>
+ *
+ * Schematics are only compared exactly when their MinHash signatures share an LSH bucket and agree closely
+ * enough, so the work grows with the number of likely duplicates instead of with every pair of files.
+ */
+public class DedupeCommand {
+    private static final Logger LOGGER = LogManager.getLogger("SchematicDedupe");
+
+    private static final int DEFAULT_MIN_PERCENT = 90;
+    // Below this a pair can have a Jaccard index under 0.6, and LSH banding puts such pairs in a common
+    // bucket less than 99% of the time, so duplicates would be missed without any sign of it
+    private static final int LOWEST_MIN_PERCENT = 75;
+    // Standard deviations of MinHash sampling noise allowed under the worst-case Jaccard index
+    private static final double ESTIMATE_SIGMAS = 3.0;
+    private static final int CLUSTERS_SHOWN = 5;
+
+    private static class DuplicatePair {
+        final String first;
+        final String second;
+        final double similarity;
+
+        DuplicatePair(String first, String second, double similarity) {
+            this.first = first;
+            this.second = second;
+            this.similarity = similarity;
+        }
+    }
+
+    public static void register(CommandDispatcher<FabricClientCommandSource> dispatcher) {
+        dispatcher.register(ClientCommandManager.literal("tools")
+                .then(ClientCommandManager.literal("dedupe")
+                        .then(ClientCommandManager.literal("min")
+                                .then(ClientCommandManager.argument("percent", IntegerArgumentType.integer(LOWEST_MIN_PERCENT, 100))
+                                        .then(ClientCommandManager.argument("directory", StringArgumentType.greedyString())
+                                                .suggests((context, builder) -> {
+                                                    suggestDirectories(builder);
+                                                    return builder.buildFuture();
+                                                })
+                                                .executes(context -> dedupe(
+                                                        StringArgumentType.getString(context, "directory"),
+                                                        IntegerArgumentType.getInteger(context, "percent"),
+                                                        context.getSource())))))
+                        .then(ClientCommandManager.argument("directory", StringArgumentType.greedyString())
+                                .suggests((context, builder) -> {
+                                    suggestDirectories(builder);
+                                    return builder.buildFuture();
+                                })
+                                .executes(context -> dedupe(
+                                        StringArgumentType.getString(context, "directory"),
+                                        DEFAULT_MIN_PERCENT,
+                                        context.getSource())))));
+    }
+
+    private static int dedupe(String directory, int minPercent, FabricClientCommandSource source) {
+        File baseDir = DataManager.getSchematicsBaseDirectory();
+        File targetDir = new File(baseDir, directory.trim());
+
+        if (!targetDir.exists() || !targetDir.isDirectory()) {
+            source.sendFeedback(Text.literal("§cInvalid directory: " + directory));
+            return 0;
+        }
+
+        source.sendFeedback(Text.literal("§6Looking for near-duplicate schematics in: §f" + directory));
+        source.sendFeedback(Text.literal("§7Schematics count as duplicates from §f" + minPercent + "%§7 top-layer similarity"));
+
+        JobManager.start("dedupe " + directory, source, job -> {
+            try {
+                findDuplicates(directory, baseDir, targetDir, minPercent / 100.0, job, source);
+            } finally {
+                // Keep the signatures and grids computed so far, even when the job is cancelled part way
+                try {
+                    MinHashIndex.get(baseDir).save();
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to save MinHash index", e);
+                }
+                try {
+                    FingerprintStore.get(baseDir).save();
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to save fingerprint store", e);
+                }
+            }
+        });
+        return 1;
+    }
+
+    /**
+     * Lowest signature agreement a pair reaching {@code minSimilarity} can show. A score S only guarantees a
+     * Jaccard index of S / (2 - S), and the estimate from {@link MinHasher#HASHES} hashes scatters around it
+     * with a deviation of sqrt(J (1 - J) / HASHES).
+     */
+    private static double minEstimate(double minSimilarity) {
+        double jaccard = minSimilarity / (2 - minSimilarity);
+        double deviation = Math.sqrt(jaccard * (1 - jaccard) / MinHasher.HASHES);
+        return Math.max(0.0, jaccard - ESTIMATE_SIGMAS * deviation);
+    }
+
+    private static void findDuplicates(String directory, File baseDir, File targetDir, double minSimilarity,
+                                       ScanJob job, FabricClientCommandSource source) throws Exception {
+        // Blocking: hash every schematic, then only keep pairs that share a bucket
+        MinHashIndex index = MinHashIndex.get(baseDir);
+        MinHashIndex.RefreshResult refresh = index.refresh(baseDir, targetDir, job);
+
+        if (refresh.files == 0) {
+            ScanExecutor.sendFeedback(source, "§cNo schematics found in directory");
+            return;
+        }
+
+        if (refresh.reindexed > 0 || refresh.removed > 0) {
+            ScanExecutor.sendFeedback(source, String.format("§7Similarity index updated: §f%d§7 file(s) hashed, §f%d§7 removed §8(%s)",
+                    refresh.reindexed, refresh.removed, job.describeElapsed()));
+        }
+
+        List<MinHashIndex.Pair> candidates = index.candidatePairs(
+                FileStamp.directoryPrefix(baseDir, targetDir), minEstimate(minSimilarity));
+
+        long allPairs = (long) refresh.files * (refresh.files - 1) / 2;
+        ScanExecutor.sendFeedback(source, String.format("§7Checking §f%,d§7 candidate pair(s) out of §f%,d§7 possible",
+                candidates.size(), allPairs));
+
+        // Group the pairs by their first file, so each file's grid is read once per group
+        Map<String, List<String>> partners = new LinkedHashMap<>();
+        for (MinHashIndex.Pair pair : candidates) {
+            partners.computeIfAbsent(pair.first, path -> new ArrayList<>()).add(pair.second);
+        }
+
+        List<File> firstFiles = new ArrayList<>(partners.size());
+        for (String path : partners.keySet()) {
+            firstFiles.add(new File(baseDir, path));
+        }
+
+        FingerprintStore store = FingerprintStore.get(baseDir);
+        List<List<DuplicatePair>> perFile = ScanExecutor.forkJoin(job, firstFiles, file -> {
+            String firstPath = FileStamp.relativePath(baseDir, file);
+            List<DuplicatePair> duplicates = new ArrayList<>();
+            try {
+                TopLayerGrid first = store.grid(file, job);
+                for (String secondPath : partners.get(firstPath)) {
+                    job.checkCancelled();
+                    TopLayerGrid second = store.grid(new File(baseDir, secondPath), job);
+
+                    double similarity = TopLayerComparator.compare(first, second).similarity();
+                    if (similarity >= minSimilarity) {
+                        duplicates.add(new DuplicatePair(firstPath, secondPath, similarity));
+                    }
+                }
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.error("Error comparing schematic: " + file.getName(), e);
+            }
+            return duplicates;
+        });
+
+        List<DuplicatePair> duplicates = new ArrayList<>();
+        for (List<DuplicatePair> fileDuplicates : perFile) {
+            duplicates.addAll(fileDuplicates);
+        }
+
+        List<List<String>> clusters = cluster(duplicates);
+        showResults(directory, clusters, duplicates, refresh.files, job, source);
+    }
+
+    /**
+     * Join duplicate pairs into groups with union-find; largest groups first, paths sorted within a group
+     */
+    private static List<List<String>> cluster(List<DuplicatePair> duplicates) {
+        Map<String, String> parent = new HashMap<>();
+
+        for (DuplicatePair pair : duplicates) {
+            String rootA = find(parent, pair.first);
+            String rootB = find(parent, pair.second);
+            if (!rootA.equals(rootB)) {
+                parent.put(rootA, rootB);
+            }
+        }
+
+        Map<String, List<String>> groups = new HashMap<>();
+        for (String path : new ArrayList<>(parent.keySet())) {
+            groups.computeIfAbsent(find(parent, path), root -> new ArrayList<>()).add(path);
+        }
+
+        List<List<String>> clusters = new ArrayList<>(groups.values());
+        for (List<String> cluster : clusters) {
+            Collections.sort(cluster);
+        }
+        clusters.sort((a, b) -> a.size() != b.size() ? Integer.compare(b.size(), a.size()) : a.get(0).compareTo(b.get(0)));
+        return clusters;
+    }
+
+    private static String find(Map<String, String> parent, String path) {
+        parent.putIfAbsent(path, path);
+        String root = path;
+        while (!parent.get(root).equals(root)) {
+            root = parent.get(root);
+        }
+
+        // Path compression
+        String current = path;
+        while (!current.equals(root)) {
+            String next = parent.get(current);
+            parent.put(current, root);
+            current = next;
+        }
+        return root;
+    }
+
+    private static void showResults(String directory, List<List<String>> clusters, List<DuplicatePair> duplicates,
+                                    int analyzed, ScanJob job, FabricClientCommandSource source) {
+        ScanExecutor.sendFeedback(source, "§a=== Duplicate Search Complete ===");
+
+        if (clusters.isEmpty()) {
+            ScanExecutor.sendFeedback(source, "§7No near-duplicates among §f" + analyzed + "§7 schematics §8(" + job.describeElapsed() + ")");
+            return;
+        }
+
+        int duplicateFiles = 0;
+        for (List<String> cluster : clusters) {
+            duplicateFiles += cluster.size();
+        }
+
+        ScanExecutor.sendFeedback(source, String.format("§6Found §f%d§6 group(s) covering §f%d§6 of §f%d§6 schematics §8(%s)",
+                clusters.size(), duplicateFiles, analyzed, job.describeElapsed()));
+
+        for (int i = 0; i < Math.min(CLUSTERS_SHOWN, clusters.size()); i++) {
+            List<String> cluster = clusters.get(i);
+            ScanExecutor.sendFeedback(source, String.format("§7%d. §f%d files §8- §7%s%s",
+                    i + 1,
+                    cluster.size(),
+                    String.join("§8, §7", cluster.subList(0, Math.min(3, cluster.size()))),
+                    cluster.size() > 3 ? "§8, ..." : ""));
+        }
+
+        generateReport(directory, clusters, duplicates, analyzed, source);
+    }
+
+    private static void generateReport(String directory, List<List<String>> clusters, List<DuplicatePair> duplicates,
+                                       int analyzed, FabricClientCommandSource source) {
+        try {
+            File baseDir = DataManager.getSchematicsBaseDirectory();
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
+            File reportFile = new File(baseDir, "duplicates_report_" + timestamp + ".txt");
+
+            // Best similarity of each file to another member of its group
+            Map<String, Double> bestMatch = new HashMap<>();
+            for (DuplicatePair pair : duplicates) {
+                bestMatch.merge(pair.first, pair.similarity, Math::max);
+                bestMatch.merge(pair.second, pair.similarity, Math::max);
+            }
+
+            try (PrintWriter writer = new PrintWriter(new FileWriter(reportFile))) {
+                writer.println("Schematic Duplicate Report");
+                writer.println("==========================");
+                writer.println("Generated: " + LocalDateTime.now());
+                writer.println("Search Directory: " + directory);
+                writer.println("Total Schematics Analyzed: " + analyzed);
+                writer.println("Duplicate Groups: " + clusters.size());
+                writer.println();
+
+                int rank = 1;
+                for (List<String> cluster : clusters) {
+                    writer.println(String.format("Group %d (%d files):", rank++, cluster.size()));
+                    for (String path : cluster) {
+                        writer.println(String.format("   %.2f%% - %s", bestMatch.getOrDefault(path, 0.0) * 100, path));
+                    }
+                    writer.println();
+                }
+            }
+
+            ScanExecutor.sendFeedback(source, "§aReport saved to: §f" + reportFile.getName());
+
+        } catch (Exception e) {
+            LOGGER.error("Failed to generate report", e);
+            ScanExecutor.sendFeedback(source, "§cFailed to generate report: " + e.getMessage());
+        }
+    }
+
+    private static void suggestDirectories(SuggestionsBuilder builder) {
+        File baseDir = DataManager.getSchematicsBaseDirectory();
+        String input = builder.getRemaining().toLowerCase();
+        suggestDirectoriesRecursive(baseDir, "", input, builder);
+    }
+
+    private static void suggestDirectoriesRecursive(File baseDir, String currentPath, String input, SuggestionsBuilder builder) {
+        File[] files = new File(baseDir, currentPath).listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                String relativePath = currentPath.isEmpty() ? file.getName() : currentPath + "/" + file.getName();
+                if (relativePath.toLowerCase().startsWith(input)) {
+                    builder.suggest(relativePath);
+                }
+                suggestDirectoriesRecursive(baseDir, relativePath, input, builder);
+            }
+        }
+    }
+}
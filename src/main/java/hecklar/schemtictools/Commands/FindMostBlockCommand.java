@@ -7,12 +7,21 @@ import fi.dy.masa.litematica.data.DataManager;
 import fi.dy.masa.litematica.schematic.LitematicaSchematic;
 import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainer;
 import fi.dy.masa.litematica.selection.Box;
+import hecklar.schemtictools.Index.BlockIndex;
+import hecklar.schemtictools.Index.FileStamp;
+import hecklar.schemtictools.Scan.JobManager;
+import hecklar.schemtictools.Scan.PackedRegion;
+import hecklar.schemtictools.Scan.ScanExecutor;
+import hecklar.schemtictools.Scan.ScanJob;
+import hecklar.schemtictools.Scan.TopK;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
 import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
 import net.minecraft.block.Block;
-import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.registry.tag.TagKey;
 import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
@@ -20,51 +29,94 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 
 /**
- * Command to find the schematic with the most occurrences of a specific block
- * Usage: /compose findmost <block> <directory>
+ * Command to find the schematic with the most occurrences of a block, several blocks or block tags
+ * Usage: /compose findmost [scan] <block,#tag,...> <directory>
  */
 public class FindMostBlockCommand {
     private static final Logger LOGGER = LogManager.getLogger("FindMostBlock");
 
+    private static final int TOP_RESULTS = 10;
+
+    // Common block tags offered in suggestions
+    private static final String[] COMMON_TAGS = {
+            "#minecraft:wool", "#minecraft:wool_carpets", "#minecraft:logs", "#minecraft:planks",
+            "#minecraft:leaves", "#minecraft:terracotta", "#minecraft:stairs", "#minecraft:slabs",
+            "#minecraft:walls", "#minecraft:fences", "#minecraft:doors", "#minecraft:beds"
+    };
+
     private static class SchematicBlockCount {
         final String path;
-        final int count;
+        final long count;
 
-        SchematicBlockCount(String path, int count) {
+        SchematicBlockCount(String path, long count) {
             this.path = path;
             this.count = count;
         }
     }
 
+    /**
+     * The blocks a search counts together, from a comma separated list of block ids and #tags
+     */
+    private static class BlockQuery {
+        final String label;
+        final Set<Block> blocks;
+        final List<String> blockIds = new ArrayList<>();
+
+        BlockQuery(String label, Set<Block> blocks) {
+            this.label = label;
+            this.blocks = blocks;
+            for (Block block : blocks) {
+                blockIds.add(Registries.BLOCK.getId(block).toString());
+            }
+        }
+    }
+
     public static void register(CommandDispatcher<FabricClientCommandSource> dispatcher) {
         dispatcher.register(ClientCommandManager.literal("tools")
                 .then(ClientCommandManager.literal("findmost")
-                        .then(ClientCommandManager.argument("block", StringArgumentType.word())
-                                .suggests((context, builder) -> {
-                                    suggestBlockNames(builder);
-                                    return builder.buildFuture();
-                                })
-                                .then(ClientCommandManager.argument("directory", StringArgumentType.greedyString())
+                        // Reads every file directly instead of going through the block index
+                        .then(ClientCommandManager.literal("scan")
+                                .then(ClientCommandManager.argument("query", StringArgumentType.greedyString())
                                         .suggests((context, builder) -> {
-                                            suggestDirectories(DataManager.getSchematicsBaseDirectory(), "", builder);
+                                            suggestQuery(builder);
                                             return builder.buildFuture();
                                         })
                                         .executes(context -> {
-                                            String blockName = StringArgumentType.getString(context, "block");
-                                            String directory = StringArgumentType.getString(context, "directory");
-                                            return findSchematicWithMostBlock(blockName, directory, context.getSource());
-                                        })))));
+                                            String query = StringArgumentType.getString(context, "query");
+                                            return findSchematicWithMostBlock(query, false, context.getSource());
+                                        })))
+                        .then(ClientCommandManager.argument("query", StringArgumentType.greedyString())
+                                .suggests((context, builder) -> {
+                                    suggestQuery(builder);
+                                    return builder.buildFuture();
+                                })
+                                .executes(context -> {
+                                    String query = StringArgumentType.getString(context, "query");
+                                    return findSchematicWithMostBlock(query, true, context.getSource());
+                                }))));
     }
 
-    private static int findSchematicWithMostBlock(String blockName, String directory, FabricClientCommandSource source) {
+    private static int findSchematicWithMostBlock(String query, boolean useIndex, FabricClientCommandSource source) {
         try {
-            // Parse the block
-            Block targetBlock = parseBlock(blockName);
-            if (targetBlock == null || (targetBlock == Blocks.AIR && !blockName.equals("air"))) {
-                source.sendFeedback(Text.literal("§cUnknown block: " + blockName));
+            // The first word is the block list, everything after it is the directory
+            String trimmed = query.trim();
+            int split = trimmed.indexOf(' ');
+            if (split < 0) {
+                source.sendFeedback(Text.literal("§cUsage: /tools findmost [scan] <block,#tag,...> <directory>"));
+                source.sendFeedback(Text.literal("§7Example: /tools findmost #minecraft:wool,white_concrete maps/city"));
+                return 0;
+            }
+            String blockSpec = trimmed.substring(0, split);
+            String directory = trimmed.substring(split + 1).trim();
+
+            // Parse the blocks
+            BlockQuery blockQuery = parseQuery(blockSpec, source);
+            if (blockQuery == null) {
                 return 0;
             }
 
@@ -77,143 +129,268 @@ public class FindMostBlockCommand {
                 return 0;
             }
 
-            source.sendFeedback(Text.literal("§6Searching for schematics with the most §f" + targetBlock.getName().getString()));
+            source.sendFeedback(Text.literal("§6Searching for schematics with the most §f" + blockQuery.label
+                    + (blockQuery.blocks.size() > 1 ? " §7(" + blockQuery.blocks.size() + " blocks combined)" : "")));
             source.sendFeedback(Text.literal("§7Directory: §f" + directory));
 
-            // Find all schematics
-            List<File> schematicFiles = findAllSchematics(targetDir);
-            if (schematicFiles.isEmpty()) {
-                source.sendFeedback(Text.literal("§cNo schematics found in directory"));
-                return 0;
+            // Scanning runs as a background job so the game keeps rendering and it can be cancelled
+            if (useIndex) {
+                JobManager.start("findmost " + blockSpec, source, job -> queryIndex(blockQuery, baseDir, targetDir, job, source));
+            } else {
+                JobManager.start("findmost scan " + blockSpec, source, job -> searchSchematics(blockQuery, baseDir, targetDir, job, source));
             }
+            return 1;
+
+        } catch (Exception e) {
+            LOGGER.error("Error finding schematic with most blocks", e);
+            source.sendFeedback(Text.literal("§cError: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    /**
+     * Answer from the persistent block index, first re-counting only the files that changed since it was written
+     */
+    private static void queryIndex(BlockQuery blockQuery, File baseDir, File targetDir, ScanJob job,
+                                   FabricClientCommandSource source) throws Exception {
+        BlockIndex index = BlockIndex.get(baseDir);
+        BlockIndex.RefreshResult refresh;
+        try {
+            refresh = index.refresh(baseDir, targetDir, job);
+        } finally {
+            // Keep whatever was indexed, even when the job is cancelled part way
+            saveIndex(index);
+        }
+
+        if (refresh.files == 0) {
+            ScanExecutor.sendFeedback(source, "§cNo schematics found in directory");
+            return;
+        }
 
-            source.sendFeedback(Text.literal("§7Analyzing §f" + schematicFiles.size() + "§7 schematics..."));
+        if (refresh.reindexed > 0 || refresh.removed > 0) {
+            ScanExecutor.sendFeedback(source, String.format("§7Block index updated: §f%d§7 file(s) counted, §f%d§7 removed §8(%s)",
+                    refresh.reindexed, refresh.removed, job.describeElapsed()));
+        }
 
-            // Track results
-            List<SchematicBlockCount> results = new ArrayList<>();
-            SchematicBlockCount highest = null;
-            int totalWithBlock = 0;
+        String prefix = FileStamp.directoryPrefix(baseDir, targetDir);
+        Ranking ranking = new Ranking();
 
-            // Analyze each schematic
-            for (File file : schematicFiles) {
-                try {
-                    LitematicaSchematic schematic = LitematicaSchematic.createFromFile(
-                            file.getParentFile().toPath().toFile(),
-                            file.getName()
-                    );
+        if (blockQuery.blockIds.size() == 1) {
+            for (BlockIndex.Posting posting : index.postings(blockQuery.blockIds.get(0), prefix)) {
+                ranking.add(posting.path, posting.count);
+            }
+        } else {
+            // Several blocks: each file's sum goes straight into the ranking
+            index.sumCounts(new HashSet<>(blockQuery.blockIds), prefix, ranking::add);
+        }
 
-                    if (schematic == null) continue;
+        showResults(blockQuery, ranking, refresh.files,
+                "§7- Answered from the block index (" + (refresh.files - refresh.reindexed) + " unchanged files)", source);
+    }
 
-                    int blockCount = countBlockInSchematic(schematic, targetBlock);
+    private static void saveIndex(BlockIndex index) {
+        try {
+            index.save();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save block index", e);
+        }
+    }
 
-                    if (blockCount > 0) {
-                        String relativePath = getRelativePath(baseDir, file);
-                        SchematicBlockCount result = new SchematicBlockCount(relativePath, blockCount);
-                        results.add(result);
-                        totalWithBlock++;
+    private static void searchSchematics(BlockQuery blockQuery, File baseDir, File targetDir, ScanJob job,
+                                         FabricClientCommandSource source) {
+        // Find all schematics
+        List<File> schematicFiles = findAllSchematics(targetDir);
+        if (schematicFiles.isEmpty()) {
+            ScanExecutor.sendFeedback(source, "§cNo schematics found in directory");
+            return;
+        }
 
-                        if (highest == null || blockCount > highest.count) {
-                            highest = result;
-                        }
-                    }
+        ScanExecutor.sendFeedback(source, "§7Analyzing §f" + schematicFiles.size() + "§7 schematics...");
 
-                } catch (Exception e) {
-                    LOGGER.error("Error analyzing schematic: " + file.getName(), e);
-                }
+        long totalBytes = 0;
+        for (File file : schematicFiles) {
+            totalBytes += file.length();
+        }
+        job.setTotals(schematicFiles.size(), totalBytes);
+
+        // Track results
+        Ranking ranking = new Ranking();
+
+        // Analyze each schematic
+        for (File file : schematicFiles) {
+            job.checkCancelled();
+            try {
+                // Each file is decompressed once; regions whose palette lacks the blocks are skipped after loading
+                LitematicaSchematic schematic = LitematicaSchematic.createFromFile(
+                        file.getParentFile().toPath().toFile(),
+                        file.getName()
+                );
+
+                if (schematic == null) continue;
+
+                // All requested blocks are counted in the same pass over each region
+                long blockCount = countBlocksInSchematic(schematic, blockQuery.blocks, job);
+                ranking.add(getRelativePath(baseDir, file), blockCount);
+
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.error("Error analyzing schematic: " + file.getName(), e);
+            } finally {
+                job.fileDone(file.length());
             }
+        }
 
-            // Sort results by count
-            results.sort((a, b) -> Integer.compare(b.count, a.count));
-
-            // Display results
-            source.sendFeedback(Text.literal(""));
-
-            if (highest != null) {
-                source.sendFeedback(Text.literal("§a=== Schematic with Most " + targetBlock.getName().getString() + " ==="));
-                source.sendFeedback(Text.literal("§f" + highest.path));
-                source.sendFeedback(Text.literal("§6Count: §f" + String.format("%,d", highest.count) + " blocks"));
-
-                // Calculate stacks and shulker boxes
-                int stacks = highest.count / 64;
-                int remainder = highest.count % 64;
-                double shulkers = highest.count / (64.0 * 27);
-
-                source.sendFeedback(Text.literal("§7That's §f" + stacks + " stacks + " + remainder +
-                        " §7(§f" + String.format("%.2f", shulkers) + " shulker boxes§7)"));
-
-                // Show top 10 if there are more
-                if (results.size() > 1) {
-                    source.sendFeedback(Text.literal(""));
-                    source.sendFeedback(Text.literal("§7Top 10 Schematics:"));
-
-                    int count = 0;
-                    for (SchematicBlockCount result : results) {
-                        if (count >= 10) break;
-
-                        String marker = (result == highest) ? " §6★" : "";
-                        source.sendFeedback(Text.literal(String.format("§7%2d. §f%,6d blocks §8- §7%s%s",
-                                count + 1,
-                                result.count,
-                                result.path,
-                                marker)));
-                        count++;
-                    }
-                }
+        showResults(blockQuery, ranking, schematicFiles.size(),
+                "§7- Counted from the schematic files (no block index)", source);
+    }
 
-                // Summary
-                source.sendFeedback(Text.literal(""));
-                source.sendFeedback(Text.literal("§7Summary:"));
-                source.sendFeedback(Text.literal("§7- Total schematics analyzed: §f" + schematicFiles.size()));
-                source.sendFeedback(Text.literal("§7- Schematics containing " + targetBlock.getName().getString() + ": §f" + totalWithBlock));
-
-                if (results.size() > 0) {
-                    int totalBlocks = results.stream().mapToInt(r -> r.count).sum();
-                    double avgBlocks = (double) totalBlocks / results.size();
-                    source.sendFeedback(Text.literal("§7- Average blocks per schematic: §f" + String.format("%.0f", avgBlocks)));
-                    source.sendFeedback(Text.literal("§7- Total " + targetBlock.getName().getString() + " blocks: §f" + String.format("%,d", totalBlocks)));
-                }
+    /**
+     * Running summary plus the top results, so nothing grows with the number of matching files
+     */
+    private static class Ranking {
+        final TopK<SchematicBlockCount> top = new TopK<>(TOP_RESULTS, Comparator.comparingLong(r -> r.count));
+        int matchingFiles = 0;
+        long totalBlocks = 0;
+
+        void add(String path, long count) {
+            if (count <= 0) {
+                return;
+            }
+            top.offer(new SchematicBlockCount(path, count));
+            matchingFiles++;
+            totalBlocks += count;
+        }
+    }
 
-            } else {
-                source.sendFeedback(Text.literal("§cNo schematics found containing " + targetBlock.getName().getString()));
+    /**
+     * Show the schematic with the most of the blocks, the top 10 and a summary
+     */
+    private static void showResults(BlockQuery blockQuery, Ranking ranking, int analyzed,
+                                    String extraSummary, FabricClientCommandSource source) {
+        List<SchematicBlockCount> results = ranking.top.sortedDescending();
+        String label = blockQuery.label;
+
+        // Display results
+        ScanExecutor.sendFeedback(source, "");
+
+        if (!results.isEmpty()) {
+            SchematicBlockCount highest = results.get(0);
+            ScanExecutor.sendFeedback(source, "§a=== Schematic with Most " + label + " ===");
+            ScanExecutor.sendFeedback(source, "§f" + highest.path);
+            ScanExecutor.sendFeedback(source, "§6Count: §f" + String.format("%,d", highest.count) + " blocks");
+
+            // Calculate stacks and shulker boxes
+            long stacks = highest.count / 64;
+            long remainder = highest.count % 64;
+            double shulkers = highest.count / (64.0 * 27);
+
+            ScanExecutor.sendFeedback(source, "§7That's §f" + stacks + " stacks + " + remainder +
+                    " §7(§f" + String.format("%.2f", shulkers) + " shulker boxes§7)");
+
+            // Show top 10 if there are more
+            if (results.size() > 1) {
+                ScanExecutor.sendFeedback(source, "");
+                ScanExecutor.sendFeedback(source, "§7Top " + TOP_RESULTS + " Schematics:");
+
+                int count = 0;
+                for (SchematicBlockCount result : results) {
+                    String marker = (result == highest) ? " §6★" : "";
+                    ScanExecutor.sendFeedback(source, String.format("§7%2d. §f%,6d blocks §8- §7%s%s",
+                            count + 1,
+                            result.count,
+                            result.path,
+                            marker));
+                    count++;
+                }
             }
 
-            return 1;
+            // Summary
+            ScanExecutor.sendFeedback(source, "");
+            ScanExecutor.sendFeedback(source, "§7Summary:");
+            ScanExecutor.sendFeedback(source, "§7- Total schematics analyzed: §f" + analyzed);
+            ScanExecutor.sendFeedback(source, extraSummary);
+            ScanExecutor.sendFeedback(source, "§7- Schematics containing " + label + ": §f" + ranking.matchingFiles);
 
-        } catch (Exception e) {
-            LOGGER.error("Error finding schematic with most blocks", e);
-            source.sendFeedback(Text.literal("§cError: " + e.getMessage()));
-            return 0;
+            double avgBlocks = (double) ranking.totalBlocks / ranking.matchingFiles;
+            ScanExecutor.sendFeedback(source, "§7- Average blocks per schematic: §f" + String.format("%.0f", avgBlocks));
+            ScanExecutor.sendFeedback(source, "§7- Total " + label + " blocks: §f" + String.format("%,d", ranking.totalBlocks));
+
+        } else {
+            ScanExecutor.sendFeedback(source, "§cNo schematics found containing " + label);
         }
     }
 
     /**
-     * Count occurrences of a specific block in a schematic
+     * Count occurrences of any of the blocks in a schematic
      */
-    private static int countBlockInSchematic(LitematicaSchematic schematic, Block targetBlock) {
-        int count = 0;
+    private static long countBlocksInSchematic(LitematicaSchematic schematic, Set<Block> targetBlocks, ScanJob job) {
+        long count = 0;
 
         for (String regionName : schematic.getAreas().keySet()) {
+            job.checkCancelled();
             LitematicaBlockStateContainer container = schematic.getSubRegionContainer(regionName);
             Box box = schematic.getAreas().get(regionName);
 
             if (container == null || box == null) continue;
 
-            BlockPos size = box.getSize();
-
-            // Check every position in the schematic
-            for (int y = 0; y < size.getY(); y++) {
-                for (int x = 0; x < size.getX(); x++) {
-                    for (int z = 0; z < size.getZ(); z++) {
-                        BlockState state = container.get(x, y, z);
-                        if (state != null && state.getBlock() == targetBlock) {
-                            count++;
-                        }
-                    }
+            // Regions whose palette lacks all of the blocks are skipped without decoding any voxels
+            PackedRegion region = PackedRegion.of(container);
+            boolean[] targetIndices = region.paletteMask(targetBlocks);
+            if (targetIndices == null) continue;
+
+            count += region.countMatching(targetIndices);
+        }
+
+        return count;
+    }
+
+    /**
+     * Parse "stone,#minecraft:logs,..." into the set of blocks to count, reporting unknown entries
+     */
+    private static BlockQuery parseQuery(String blockSpec, FabricClientCommandSource source) {
+        Set<Block> blocks = new LinkedHashSet<>();
+        List<String> labels = new ArrayList<>();
+
+        for (String part : blockSpec.split(",")) {
+            String name = part.trim();
+            if (name.isEmpty()) continue;
+
+            if (name.startsWith("#")) {
+                Identifier tagId = Identifier.tryParse(name.substring(1).toLowerCase());
+                if (tagId == null) {
+                    source.sendFeedback(Text.literal("§cInvalid block tag: " + name));
+                    return null;
+                }
+
+                TagKey<Block> tag = TagKey.of(RegistryKeys.BLOCK, tagId);
+                int before = blocks.size();
+                for (RegistryEntry<Block> entry : Registries.BLOCK.iterateEntries(tag)) {
+                    blocks.add(entry.value());
+                }
+
+                if (blocks.size() == before) {
+                    source.sendFeedback(Text.literal("§cUnknown or empty block tag: " + name));
+                    return null;
+                }
+                labels.add("#" + tagId);
+            } else {
+                Block block = parseBlock(name);
+                if (block == null || (block == Blocks.AIR && !name.equals("air"))) {
+                    source.sendFeedback(Text.literal("§cUnknown block: " + name));
+                    return null;
                 }
+                blocks.add(block);
+                labels.add(block.getName().getString());
             }
         }
 
-        return count;
+        if (blocks.isEmpty()) {
+            source.sendFeedback(Text.literal("§cNo blocks given"));
+            return null;
+        }
+
+        return new BlockQuery(String.join(", ", labels), blocks);
     }
 
     /**
@@ -278,12 +455,37 @@ public class FindMostBlockCommand {
         return file.getName();
     }
 
+    /**
+     * Suggest blocks for the last entry of the block list, then directories once the list is followed by a space
+     */
+    private static void suggestQuery(SuggestionsBuilder builder) {
+        String remaining = builder.getRemaining();
+        int space = remaining.indexOf(' ');
+
+        if (space < 0) {
+            int lastComma = remaining.lastIndexOf(',');
+            SuggestionsBuilder blockBuilder = builder.createOffset(builder.getStart() + lastComma + 1);
+            suggestBlockNames(blockBuilder);
+            builder.add(blockBuilder);
+        } else {
+            SuggestionsBuilder directoryBuilder = builder.createOffset(builder.getStart() + space + 1);
+            suggestDirectories(DataManager.getSchematicsBaseDirectory(), "", directoryBuilder);
+            builder.add(directoryBuilder);
+        }
+    }
+
     /**
      * Suggest block names for auto-completion
      */
     private static void suggestBlockNames(SuggestionsBuilder builder) {
         String input = builder.getRemaining().toLowerCase();
 
+        for (String tag : COMMON_TAGS) {
+            if (tag.startsWith(input)) {
+                builder.suggest(tag);
+            }
+        }
+
         // Common blocks
         String[] commonBlocks = {
                 "stone", "cobblestone", "dirt", "grass_block", "oak_planks", "spruce_planks",
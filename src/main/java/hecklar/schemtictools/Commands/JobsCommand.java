@@ -0,0 +1,70 @@
+package hecklar.schemtictools.Commands;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import hecklar.schemtictools.Scan.JobManager;
+import hecklar.schemtictools.Scan.ScanJob;
+import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
+import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.text.Text;
+
+import java.util.List;
+
+/**
+ * Lists and cancels running background scans
+ * Usage: /tools jobs [list|cancel <id>|cancel all]
+ */
+public class JobsCommand {
+
+    public static void register(CommandDispatcher<FabricClientCommandSource> dispatcher) {
+        dispatcher.register(ClientCommandManager.literal("tools")
+                .then(ClientCommandManager.literal("jobs")
+                        .executes(context -> listJobs(context.getSource()))
+                        .then(ClientCommandManager.literal("list")
+                                .executes(context -> listJobs(context.getSource())))
+                        .then(ClientCommandManager.literal("cancel")
+                                .then(ClientCommandManager.literal("all")
+                                        .executes(context -> {
+                                            int count = JobManager.cancelAll();
+                                            context.getSource().sendFeedback(Text.literal("§eCancelling §f" + count + "§e running job(s)"));
+                                            return count;
+                                        }))
+                                .then(ClientCommandManager.argument("id", IntegerArgumentType.integer(1))
+                                        .suggests((context, builder) -> {
+                                            for (ScanJob job : JobManager.list()) {
+                                                builder.suggest(job.getId());
+                                            }
+                                            return builder.buildFuture();
+                                        })
+                                        .executes(context -> {
+                                            int id = IntegerArgumentType.getInteger(context, "id");
+                                            return cancelJob(id, context.getSource());
+                                        })))));
+    }
+
+    private static int listJobs(FabricClientCommandSource source) {
+        List<ScanJob> jobs = JobManager.list();
+        if (jobs.isEmpty()) {
+            source.sendFeedback(Text.literal("§7No jobs running"));
+            return 0;
+        }
+
+        source.sendFeedback(Text.literal("§6Running jobs:"));
+        for (ScanJob job : jobs) {
+            String state = job.isCancelled() ? " §e(cancelling)" : "";
+            source.sendFeedback(Text.literal("§7" + job.describeProgress() + state));
+        }
+        return jobs.size();
+    }
+
+    private static int cancelJob(int id, FabricClientCommandSource source) {
+        if (!JobManager.cancel(id)) {
+            source.sendFeedback(Text.literal("§cNo running job #" + id));
+            return 0;
+        }
+
+        // Workers notice between files or regions, so the job stops shortly after
+        source.sendFeedback(Text.literal("§eCancelling job #" + id + "..."));
+        return 1;
+    }
+}
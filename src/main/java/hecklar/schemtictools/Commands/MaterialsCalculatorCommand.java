@@ -7,6 +7,16 @@ import fi.dy.masa.litematica.data.DataManager;
 import fi.dy.masa.litematica.schematic.LitematicaSchematic;
 import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainer;
 import fi.dy.masa.litematica.selection.Box;
+import hecklar.schemtictools.Index.FileStamp;
+import hecklar.schemtictools.Index.MaterialManifest;
+import hecklar.schemtictools.Report.MaterialsReportWriter;
+import hecklar.schemtictools.Scan.JobManager;
+import hecklar.schemtictools.Scan.LitematicMetadataReader;
+import hecklar.schemtictools.Scan.MaterialTally;
+import hecklar.schemtictools.Scan.PackedRegion;
+import hecklar.schemtictools.Scan.ScanExecutor;
+import hecklar.schemtictools.Scan.ScanJob;
+import hecklar.schemtictools.Scan.SchematicMetadata;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
 import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
 import net.minecraft.block.Block;
@@ -23,49 +33,28 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.registry.Registries;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 public class MaterialsCalculatorCommand {
     private static final Logger LOGGER = LogManager.getLogger("2b2tTweaks");
-    // Keep track of the last report file
-    private static File lastReportFile = null;
-
-    private static class MaterialCount {
-        int count;
-        String blockName;
-
-        MaterialCount(String blockName) {
-            this.blockName = blockName;
-            this.count = 0;
-        }
-
-        void increment() {
-            count++;
-        }
-
-        void add(int amount) {
-            count += amount;
-        }
-    }
-
-    // Class to track materials per schematic
-    private static class SchematicMaterials {
-        String name;
-        Map<Block, MaterialCount> materials = new HashMap<>();
-        int totalBlocks = 0;
-
-        SchematicMaterials(String name) {
-            this.name = name;
-        }
-
-        void addBlock(Block block, String blockName) {
-            materials.computeIfAbsent(block, b -> new MaterialCount(blockName)).increment();
-            totalBlocks++;
-        }
+    // Keep track of the last report file (written by the background scan)
+    private static volatile File lastReportFile = null;
+
+    // Counts owned by a single scan worker thread, indexed by block raw id
+    private static class MaterialsWorker {
+        final MaterialTally totals = new MaterialTally();
+        // Reused for every file this worker handles
+        final MaterialTally schematic = new MaterialTally();
+        int schematics = 0;
+        long blocks = 0;
+        int cached = 0;
     }
 
     public static void register(CommandDispatcher<FabricClientCommandSource> dispatcher) {
@@ -81,6 +70,28 @@ public class MaterialsCalculatorCommand {
                                     String directory = StringArgumentType.getString(context, "directory");
                                     return calculateMaterials(directory, context.getSource());
                                 }))
+                        // Quick estimate from the schematics' metadata, without decoding any blocks
+                        .then(ClientCommandManager.literal("estimate")
+                                .then(ClientCommandManager.argument("directory", StringArgumentType.greedyString())
+                                        .suggests((context, builder) -> {
+                                            suggestDirectories(DataManager.getSchematicsBaseDirectory(), "", builder);
+                                            return builder.buildFuture();
+                                        })
+                                        .executes(context -> {
+                                            String directory = StringArgumentType.getString(context, "directory");
+                                            return estimateMaterials(directory, context.getSource());
+                                        })))
+                        // List every schematic with its metadata into a CSV catalog
+                        .then(ClientCommandManager.literal("catalog")
+                                .then(ClientCommandManager.argument("directory", StringArgumentType.greedyString())
+                                        .suggests((context, builder) -> {
+                                            suggestDirectories(DataManager.getSchematicsBaseDirectory(), "", builder);
+                                            return builder.buildFuture();
+                                        })
+                                        .executes(context -> {
+                                            String directory = StringArgumentType.getString(context, "directory");
+                                            return writeCatalog(directory, context.getSource());
+                                        })))
                         // Add command to open the last report
                         .then(ClientCommandManager.literal("open-last")
                                 .executes(context -> {
@@ -138,95 +149,300 @@ public class MaterialsCalculatorCommand {
     }
 
     private static int calculateMaterials(String directory, FabricClientCommandSource source) {
-        try {
-            File baseDir = DataManager.getSchematicsBaseDirectory();
-            File targetDir = new File(baseDir, directory);
+        File baseDir = DataManager.getSchematicsBaseDirectory();
+        File targetDir = new File(baseDir, directory);
 
-            if (!targetDir.exists() || !targetDir.isDirectory()) {
-                source.sendFeedback(Text.literal("§cInvalid directory path: " + directory));
-                return 0;
-            }
+        if (!targetDir.exists() || !targetDir.isDirectory()) {
+            source.sendFeedback(Text.literal("§cInvalid directory path: " + directory));
+            return 0;
+        }
+
+        source.sendFeedback(Text.literal(String.format(
+                "§6Calculating required materials for all schematics... §7(%d worker threads)",
+                ScanExecutor.getWorkerCount())));
 
-            source.sendFeedback(Text.literal("§6Calculating required materials for all schematics..."));
+        // Loading and counting happens on the scan pool so the game keeps rendering
+        JobManager.start("materials " + directory, source, job -> runMaterialsScan(directory, targetDir, job, source));
+        return 1;
+    }
+
+    private static void runMaterialsScan(String directory, File targetDir, ScanJob job,
+                                         FabricClientCommandSource source) throws Exception {
+        File baseDir = DataManager.getSchematicsBaseDirectory();
+
+        // Sections are streamed to disk as files finish, only the running totals stay in memory
+        try (MaterialsReportWriter report = MaterialsReportWriter.open(baseDir, directory)) {
+            List<File> schematicFiles = ScanExecutor.findAllSchematics(targetDir);
+
+            // Files whose size and modification time haven't changed are answered from the manifest
+            MaterialManifest manifest = MaterialManifest.load(baseDir);
+
+            // Every worker keeps its own counts, merged once all files are done
+            List<MaterialsWorker> workers;
+            try {
+                workers = ScanExecutor.scan(job, schematicFiles, MaterialsWorker::new,
+                        (worker, file) -> processFile(worker, baseDir, file, manifest, report, job, source));
+            } finally {
+                // Keep whatever was counted, even when the job is cancelled part way
+                saveManifest(manifest);
+            }
 
-            // Material tracking - both total and per-schematic
-            Map<Block, MaterialCount> totalMaterialCounts = new HashMap<>();
-            List<SchematicMaterials> perSchematicMaterials = new ArrayList<>();
+            MaterialTally totalMaterialCounts = new MaterialTally();
             int totalSchematicsProcessed = 0;
-            int totalBlocks = 0;
-
-            // Process all schematics in directory recursively
-            Queue<File> directories = new ArrayDeque<>();
-            directories.add(targetDir);
-
-            while (!directories.isEmpty()) {
-                File currentDir = directories.poll();
-                File[] files = currentDir.listFiles();
-
-                if (files != null) {
-                    for (File file : files) {
-                        if (file.isDirectory()) {
-                            directories.add(file);
-                            continue;
-                        }
-
-                        if (!file.getName().endsWith(".litematic")) {
-                            continue;
-                        }
-
-                        try {
-                            LitematicaSchematic schematic = LitematicaSchematic.createFromFile(
-                                    file.getParentFile().toPath().toFile(),
-                                    file.getName()
-                            );
-
-                            if (schematic == null) continue;
-
-                            // Create a new entry for this schematic's materials
-                            SchematicMaterials schematicMats = new SchematicMaterials(file.getName());
-
-                            // Process the schematic and update both total and per-schematic counts
-                            int blockCount = processSchematic(schematic, totalMaterialCounts, schematicMats);
-
-                            // Add to the list of per-schematic materials
-                            perSchematicMaterials.add(schematicMats);
-
-                            totalSchematicsProcessed++;
-                            totalBlocks += blockCount;
-
-                            source.sendFeedback(Text.literal(String.format(
-                                    "§7Processed: §f%s §7(+%d blocks)",
-                                    file.getName(), blockCount
-                            )));
-                        } catch (Exception e) {
-                            source.sendFeedback(Text.literal("§cFailed to process " + file.getName() + ": " + e.getMessage()));
-                        }
-                    }
-                }
+            long totalBlocks = 0;
+            int cachedSchematics = 0;
+
+            for (MaterialsWorker worker : workers) {
+                totalMaterialCounts.addAll(worker.totals);
+                totalSchematicsProcessed += worker.schematics;
+                totalBlocks += worker.blocks;
+                cachedSchematics += worker.cached;
+            }
+
+            Set<String> seenPaths = new HashSet<>();
+            for (File file : schematicFiles) {
+                seenPaths.add(FileStamp.relativePath(baseDir, file));
             }
+            manifest.prune(FileStamp.directoryPrefix(baseDir, targetDir), seenPaths);
+            saveManifest(manifest);
 
             if (totalSchematicsProcessed == 0) {
-                source.sendFeedback(Text.literal("§cNo valid schematics found in the directory"));
-                return 0;
+                ScanExecutor.sendFeedback(source, "§cNo valid schematics found in the directory");
+                return;
             }
 
-            // Generate report
-            File reportFile = generateMaterialsReport(totalMaterialCounts, perSchematicMaterials,
-                    directory, totalSchematicsProcessed, totalBlocks, source);
+            ScanExecutor.sendFeedback(source, String.format("§7Loaded §f%d§7 schematics, §f%d§7 unchanged ones read from the manifest §8(%s)",
+                    totalSchematicsProcessed - cachedSchematics, cachedSchematics, job.describeElapsed()));
 
-            if (reportFile != null) {
-                lastReportFile = reportFile;
-                // Send clickable file link
-                sendReportFileInfo(reportFile, source);
+            // Totals go first in the text report, the per-schematic sections are appended behind them
+            List<MaterialsReportWriter.Material> totals = toReportMaterials(totalMaterialCounts);
+            report.finish(directory, totalSchematicsProcessed, totalBlocks, totals);
+
+            // Also send top materials to chat for immediate feedback
+            for (MaterialsReportWriter.Material material : totals) {
+                if (material.count > 1000) {
+                    ScanExecutor.sendFeedback(source, String.format(
+                            "§7%s: §a%,d §7(%.1f shulkers)",
+                            material.blockName, material.count, material.count / (64.0 * 27)
+                    ));
+                }
             }
 
-            return 1;
+            lastReportFile = report.getReportFile();
+            // Send clickable file link
+            sendReportFileInfo(report.getReportFile(), source);
+            ScanExecutor.sendFeedback(source, "§7Machine-readable copies: §f" + report.getCsvFile().getName()
+                    + "§7, §f" + report.getJsonFile().getName());
+        }
+    }
 
+    private static void saveManifest(MaterialManifest manifest) {
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save materials manifest", e);
+        }
+    }
+
+    private static void processFile(MaterialsWorker worker, File baseDir, File file, MaterialManifest manifest,
+                                    MaterialsReportWriter report, ScanJob job, FabricClientCommandSource source) {
+        try {
+            FileStamp stamp = FileStamp.of(baseDir, file);
+            MaterialManifest.Entry cached = manifest.get(stamp);
+
+            // Per-schematic counts only live until this file's section is written
+            MaterialTally schematicMats = worker.schematic;
+            schematicMats.clear();
+
+            if (cached != null) {
+                applyCachedCounts(cached, schematicMats);
+                worker.cached++;
+            } else {
+                LitematicaSchematic schematic = LitematicaSchematic.createFromFile(
+                        file.getParentFile().toPath().toFile(),
+                        file.getName()
+                );
+
+                if (schematic == null) return;
+
+                processSchematic(schematic, schematicMats, job);
+                storeCounts(manifest, stamp, schematicMats);
+            }
+
+            // Block names are only resolved here, when the section is written
+            report.writeSchematic(file.getName(), schematicMats.getTotal(), toReportMaterials(schematicMats));
+            worker.totals.addAll(schematicMats);
+            worker.schematics++;
+            worker.blocks += schematicMats.getTotal();
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
-            source.sendFeedback(Text.literal("§cError during processing: " + e.getMessage()));
-            e.printStackTrace();
+            ScanExecutor.sendFeedback(source, "§cFailed to process " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Report lines sorted by block count (descending)
+     */
+    private static List<MaterialsReportWriter.Material> toReportMaterials(MaterialTally counts) {
+        List<MaterialsReportWriter.Material> materials = new ArrayList<>(counts.getDistinctCount());
+        counts.forEach((rawId, count) ->
+                materials.add(new MaterialsReportWriter.Material(MaterialTally.getBlockName(rawId), count)));
+        materials.sort((a, b) -> Long.compare(b.count, a.count));
+        return materials;
+    }
+
+    private static void applyCachedCounts(MaterialManifest.Entry cached, MaterialTally schematicMats) {
+        for (int i = 0; i < cached.blockIds.length; i++) {
+            Identifier id = Identifier.tryParse(cached.blockIds[i]);
+            if (id == null || !Registries.BLOCK.containsId(id)) {
+                continue;
+            }
+
+            schematicMats.add(MaterialTally.getRawId(Registries.BLOCK.get(id)), cached.counts[i]);
+        }
+    }
+
+    private static void storeCounts(MaterialManifest manifest, FileStamp stamp, MaterialTally schematicMats) {
+        String[] blockIds = new String[schematicMats.getDistinctCount()];
+        int[] counts = new int[blockIds.length];
+        int[] next = {0};
+
+        schematicMats.forEach((rawId, count) -> {
+            blockIds[next[0]] = MaterialTally.getBlockName(rawId);
+            counts[next[0]] = (int) count;
+            next[0]++;
+        });
+
+        manifest.put(stamp, blockIds, counts);
+    }
+
+    private static int estimateMaterials(String directory, FabricClientCommandSource source) {
+        File targetDir = new File(DataManager.getSchematicsBaseDirectory(), directory);
+
+        if (!targetDir.exists() || !targetDir.isDirectory()) {
+            source.sendFeedback(Text.literal("§cInvalid directory path: " + directory));
+            return 0;
+        }
+
+        source.sendFeedback(Text.literal("§6Estimating materials from schematic metadata..."));
+
+        JobManager.start("estimate " + directory, source, job -> {
+            List<SchematicMetadata> schematics = readAllMetadata(targetDir, job, source);
+            if (schematics.isEmpty()) {
+                ScanExecutor.sendFeedback(source, "§cNo valid schematics found in the directory");
+                return;
+            }
+
+            long totalBlocks = 0;
+            long totalVolume = 0;
+            Set<String> blockTypes = new HashSet<>();
+
+            for (SchematicMetadata metadata : schematics) {
+                totalBlocks += metadata.totalBlocks;
+                totalVolume += metadata.totalVolume;
+                for (SchematicMetadata.RegionInfo region : metadata.regions) {
+                    blockTypes.addAll(region.palette);
+                }
+            }
+            blockTypes.remove("minecraft:air");
+
+            schematics.sort((a, b) -> Long.compare(b.totalBlocks, a.totalBlocks));
+
+            ScanExecutor.sendFeedback(source, "§a=== Material Estimate (metadata only) ===");
+            ScanExecutor.sendFeedback(source, "§7Schematics: §f" + schematics.size());
+            ScanExecutor.sendFeedback(source, String.format("§7Total blocks: §f%,d §7of §f%,d §7volume", totalBlocks, totalVolume));
+            ScanExecutor.sendFeedback(source, String.format("§7Roughly §f%.1f§7 shulker boxes", totalBlocks / (64.0 * 27)));
+            ScanExecutor.sendFeedback(source, "§7Distinct palette blocks: §f" + blockTypes.size());
+
+            ScanExecutor.sendFeedback(source, "§7Largest schematics:");
+            for (int i = 0; i < Math.min(5, schematics.size()); i++) {
+                SchematicMetadata metadata = schematics.get(i);
+                ScanExecutor.sendFeedback(source, String.format("§7%d. §f%,d blocks §8- §7%s",
+                        i + 1, metadata.totalBlocks, metadata.file.getName()));
+            }
+
+            ScanExecutor.sendFeedback(source, "§8Counts come from the files' metadata; run /tools materials for exact per-block totals");
+        });
+
+        return 1;
+    }
+
+    private static int writeCatalog(String directory, FabricClientCommandSource source) {
+        File baseDir = DataManager.getSchematicsBaseDirectory();
+        File targetDir = new File(baseDir, directory);
+
+        if (!targetDir.exists() || !targetDir.isDirectory()) {
+            source.sendFeedback(Text.literal("§cInvalid directory path: " + directory));
             return 0;
         }
+
+        source.sendFeedback(Text.literal("§6Cataloging schematics..."));
+
+        JobManager.start("catalog " + directory, source, job -> {
+            List<SchematicMetadata> schematics = readAllMetadata(targetDir, job, source);
+            if (schematics.isEmpty()) {
+                ScanExecutor.sendFeedback(source, "§cNo valid schematics found in the directory");
+                return;
+            }
+
+            schematics.sort((a, b) -> Long.compare(b.totalBlocks, a.totalBlocks));
+
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
+            File catalogFile = new File(baseDir, "schematic_catalog_" + timestamp + ".csv");
+
+            try (BufferedWriter writer = Files.newBufferedWriter(catalogFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write("path,name,author,regions,size_x,size_y,size_z,total_blocks,total_volume,palette_entries,file_bytes\n");
+                for (SchematicMetadata metadata : schematics) {
+                    writer.write(String.join(",",
+                            csvField(FileStamp.relativePath(baseDir, metadata.file)),
+                            csvField(metadata.name),
+                            csvField(metadata.author),
+                            Integer.toString(metadata.regionCount),
+                            Integer.toString(Math.abs(metadata.enclosingX)),
+                            Integer.toString(Math.abs(metadata.enclosingY)),
+                            Integer.toString(Math.abs(metadata.enclosingZ)),
+                            Long.toString(metadata.totalBlocks),
+                            Long.toString(metadata.totalVolume),
+                            Integer.toString(metadata.getPaletteSize()),
+                            Long.toString(metadata.file.length())));
+                    writer.write("\n");
+                }
+            }
+
+            ScanExecutor.sendFeedback(source, "§aCataloged §f" + schematics.size() + "§a schematics to §f" + catalogFile.getName());
+        });
+
+        return 1;
+    }
+
+    /**
+     * Read only the metadata and palettes of every schematic on the scan pool
+     */
+    private static List<SchematicMetadata> readAllMetadata(File targetDir, ScanJob job,
+                                                           FabricClientCommandSource source) throws Exception {
+        List<File> schematicFiles = ScanExecutor.findAllSchematics(targetDir);
+
+        List<List<SchematicMetadata>> perWorker = ScanExecutor.<List<SchematicMetadata>>scan(job, schematicFiles, ArrayList::new, (list, file) -> {
+            try {
+                list.add(LitematicMetadataReader.read(file));
+            } catch (Exception e) {
+                ScanExecutor.sendFeedback(source, "§cFailed to read " + file.getName() + ": " + e.getMessage());
+            }
+        });
+
+        List<SchematicMetadata> schematics = new ArrayList<>();
+        for (List<SchematicMetadata> list : perWorker) {
+            schematics.addAll(list);
+        }
+        return schematics;
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
     }
 
     private static void sendReportFileInfo(File reportFile, FabricClientCommandSource source) {
@@ -252,165 +468,39 @@ public class MaterialsCalculatorCommand {
         // Debug: Log the command being executed
         LOGGER.info("Setting up click event for command: " + openCommand);
         // Send the clickable message
-        source.sendFeedback(message);
+        ScanExecutor.sendFeedback(source, message);
 
         // Let them know they can use the command
-        source.sendFeedback(Text.literal("§7Or type: §f" + openCommand));
+        ScanExecutor.sendFeedback(source, "§7Or type: §f" + openCommand);
     }
 
-    private static int processSchematic(LitematicaSchematic schematic,
-                                        Map<Block, MaterialCount> totalMaterials,
-                                        SchematicMaterials schematicMats) {
-        int blockCount = 0;
+    private static void processSchematic(LitematicaSchematic schematic, MaterialTally schematicMats, ScanJob job) {
         Map<String, Box> areas = schematic.getAreas();
 
         for (Map.Entry<String, Box> entry : areas.entrySet()) {
+            job.checkCancelled();
+
             LitematicaBlockStateContainer container = schematic.getSubRegionContainer(entry.getKey());
             if (container == null) continue;
 
-            Box box = entry.getValue();
-            BlockPos size = box.getSize();
+            // Count palette indices over the packed array, then resolve each index to a raw block id once
+            PackedRegion region = PackedRegion.of(container);
+            int[] histogram = region.histogram();
+            BlockState[] palette = region.getPalette();
 
-            for (int x = 0; x < size.getX(); x++) {
-                for (int y = 0; y < size.getY(); y++) {
-                    for (int z = 0; z < size.getZ(); z++) {
-                        BlockState state = container.get(x, y, z);
-                        if (state != null && !state.isAir()) {
-                            Block block = state.getBlock();
+            for (int i = 0; i < histogram.length; i++) {
+                BlockState state = palette[i];
 
-                            // Skip fluids and other blocks that you don't need to place
-                            if (shouldCountBlock(block, state)) {
-                                String blockName = getBlockName(block);
-
-                                // Update total counts
-                                totalMaterials.computeIfAbsent(block, b -> new MaterialCount(blockName)).increment();
-
-                                // Update per-schematic counts
-                                schematicMats.addBlock(block, blockName);
-
-                                blockCount++;
-                            }
-                        }
-                    }
+                // Skip air, fluids and other blocks that you don't need to place
+                if (histogram[i] > 0 && shouldCountBlock(state.getBlock(), state)) {
+                    schematicMats.add(MaterialTally.getRawId(state.getBlock()), histogram[i]);
                 }
             }
         }
-
-        return blockCount;
     }
 
     private static boolean shouldCountBlock(Block block, BlockState state) {
         // Skip fluids and certain blocks that are not placeable items
         return state.getFluidState().isEmpty() && !state.isAir();
     }
-
-    private static String getBlockName(Block block) {
-        // Updated to use the current registry system for Minecraft 1.21.4
-        Identifier id = Registries.BLOCK.getId(block);
-        return id.toString();
-    }
-
-    private static File generateMaterialsReport(
-            Map<Block, MaterialCount> totalMaterialCounts,
-            List<SchematicMaterials> perSchematicMaterials,
-            String directory,
-            int totalSchematicsProcessed,
-            int totalBlocks,
-            FabricClientCommandSource source) {
-
-        try {
-            File baseDir = DataManager.getSchematicsBaseDirectory();
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
-            File reportFile = new File(baseDir, "materials_report_" + timestamp + ".txt");
-
-            try (PrintWriter writer = new PrintWriter(new FileWriter(reportFile))) {
-                writer.println("Materials List Analysis Report");
-                writer.println("Generated: " + LocalDateTime.now());
-                writer.println("Directory: " + directory);
-                writer.println("Schematics Processed: " + totalSchematicsProcessed);
-                writer.println("Total Blocks: " + totalBlocks);
-
-                // First section: Total materials across all schematics
-                writer.println("\n----- TOTAL MATERIALS REQUIRED -----\n");
-
-                // Convert to list for sorting
-                List<Map.Entry<Block, MaterialCount>> sortedMaterials = new ArrayList<>(totalMaterialCounts.entrySet());
-
-                // Sort by block count (descending)
-                sortedMaterials.sort((a, b) -> Integer.compare(b.getValue().count, a.getValue().count));
-
-                // Calculate and display material counts
-                for (Map.Entry<Block, MaterialCount> entry : sortedMaterials) {
-                    MaterialCount mc = entry.getValue();
-                    int stacks = mc.count / 64;
-                    int remainder = mc.count % 64;
-                    double shulkers = mc.count / (64.0 * 27); // 27 stacks per shulker
-
-                    writer.printf("%-40s: %,d blocks (%d stacks + %d, %.2f shulker boxes)%n",
-                            mc.blockName, mc.count, stacks, remainder, shulkers);
-
-                    // Also send top materials to chat for immediate feedback
-                    if (mc.count > 1000) {
-                        source.sendFeedback(Text.literal(String.format(
-                                "§7%s: §a%,d §7(%.1f shulkers)",
-                                mc.blockName, mc.count, shulkers
-                        )));
-                    }
-                }
-
-                // Add summary for all materials
-                writer.println("\nTotal Summary:");
-                writer.println("Total unique materials: " + sortedMaterials.size());
-
-                // Calculate total shulker boxes needed
-                double totalShulkers = sortedMaterials.stream()
-                        .mapToDouble(e -> e.getValue().count / (64.0 * 27))
-                        .sum();
-                writer.printf("Total shulker boxes required: %.2f%n", totalShulkers);
-
-                // Second section: Per-schematic materials
-                writer.println("\n\n----- MATERIALS REQUIRED BY EACH SCHEMATIC -----\n");
-
-                // Sort schematics by total block count (largest first)
-                perSchematicMaterials.sort((a, b) -> Integer.compare(b.totalBlocks, a.totalBlocks));
-
-                // Process each schematic
-                for (SchematicMaterials schematic : perSchematicMaterials) {
-                    writer.println("### " + schematic.name + " ###");
-                    writer.println("Total blocks: " + schematic.totalBlocks);
-
-                    // Calculate total shulker boxes for this schematic
-                    double schematicTotalShulkers = schematic.materials.values().stream()
-                            .mapToDouble(mc -> mc.count / (64.0 * 27))
-                            .sum();
-                    writer.printf("Total shulker boxes: %.2f%n", schematicTotalShulkers);
-
-                    // Sort materials by count
-                    List<Map.Entry<Block, MaterialCount>> sortedSchematicMaterials =
-                            new ArrayList<>(schematic.materials.entrySet());
-                    sortedSchematicMaterials.sort((a, b) ->
-                            Integer.compare(b.getValue().count, a.getValue().count));
-
-                    // Write ALL materials for this schematic
-                    writer.println("Materials:");
-                    for (Map.Entry<Block, MaterialCount> entry : sortedSchematicMaterials) {
-                        MaterialCount mc = entry.getValue();
-                        int stacks = mc.count / 64;
-                        int remainder = mc.count % 64;
-                        double shulkers = mc.count / (64.0 * 27); // 27 stacks per shulker
-
-                        writer.printf("  %-40s: %,d blocks (%d stacks + %d, %.2f shulker boxes)%n",
-                                mc.blockName, mc.count, stacks, remainder, shulkers);
-                    }
-                    writer.println();
-                }
-            }
-
-            return reportFile;
-
-        } catch (Exception e) {
-            source.sendFeedback(Text.literal("§cError generating materials report: " + e.getMessage()));
-            return null;
-        }
-    }
 }
\ No newline at end of file
@@ -7,16 +7,22 @@ import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainer;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager;
 import fi.dy.masa.litematica.selection.Box;
+import hecklar.schemtictools.Beam.BeamChangeQueue;
+import hecklar.schemtictools.Beam.BeamColumnStore;
 import hecklar.schemtictools.Render.SchematicBeamRenderer;
+import hecklar.schemtictools.Scan.PackedRegion;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
 import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientChunkEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.block.MushroomBlock;
 import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.world.ClientWorld;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -27,51 +33,28 @@ import static hecklar.schemtictools.SchematicTools.sendMessage;
 public class SchematicBeamCommand {
     private static final Logger LOGGER = LogManager.getLogger("2b2tTweaks");
     private static boolean isInitialized = false;
-    private static final int UPDATE_INTERVAL = 5; // Ticks between updates
-    private static final double UPDATE_RADIUS = 10.0; // Blocks
-    private static int tickCounter = 0;
     private static SchematicPlacement currentPlacement = null;
-    private static final Map<BlockPos, SchematicBlockInfo> allSchematicBlocks = new HashMap<>();
-    private static final Set<BlockPos> completeBlocks = new HashSet<>();
-    private static final Map<Long, Integer> highestYLevels = new HashMap<>();
-
-    private static class SchematicBlockInfo {
-        final BlockState expectedState;
-        final String regionName;
-        final BlockPos regionPos;
-
-        SchematicBlockInfo(BlockState state, String region, BlockPos pos) {
-            this.expectedState = state;
-            this.regionName = region;
-            this.regionPos = pos;
-        }
-    }
-
-    private static long getColumnKey(int x, int z) {
-        return ((long)x << 32) | (z & 0xFFFFFFFFL);
-    }
+    // Top block of every column in the placement; looked up by X/Z, so it doubles as the spatial index
+    private static BeamColumnStore columns = null;
 
     public static void register(CommandDispatcher<FabricClientCommandSource> dispatcher) {
         if (!isInitialized) {
-            // --- MODIFIED LINE HERE ---
+            // The renderer draws its own cached buffers, so it doesn't need the context's vertex consumers
             WorldRenderEvents.AFTER_TRANSLUCENT.register(context ->
                     SchematicBeamRenderer.render(
                             context.matrixStack(),
-                            context.camera(),
-                            context.consumers() // <-- Pass the VertexConsumerProvider
+                            context.camera()
                     )
             );
-            // --- END OF MODIFICATION ---
 
+            // Only columns the client world reports as changed are checked again
             ClientTickEvents.END_CLIENT_TICK.register(client -> {
-                if (SchematicBeamRenderer.isEnabled() && client.player != null && client.world != null) { // Added null check for world
-                    tickCounter++;
-                    if (tickCounter >= UPDATE_INTERVAL) {
-                        tickCounter = 0;
-                        checkNearbyBlocks(client);
-                    }
+                if (SchematicBeamRenderer.isEnabled() && client.world != null && !BeamChangeQueue.isEmpty()) {
+                    applyWorldChanges(client.world);
                 }
             });
+            ClientChunkEvents.CHUNK_LOAD.register((world, chunk) -> BeamChangeQueue.markChunk(chunk.getPos()));
+            ClientChunkEvents.CHUNK_UNLOAD.register((world, chunk) -> BeamChangeQueue.dropChunk(chunk.getPos()));
 
             isInitialized = true;
         }
@@ -91,7 +74,7 @@ public class SchematicBeamCommand {
                                             } else {
                                                 // Clear beams and state when disabling
                                                 SchematicBeamRenderer.clearBlocks();
-                                                completeBlocks.clear(); // Also clear completion tracking
+                                                setColumns(null); // Also drop completion tracking
                                             }
                                             return 1;
                                         }))
@@ -110,50 +93,74 @@ public class SchematicBeamCommand {
         );
     }
 
-    private static boolean isHighestInColumn(BlockPos pos) {
-        int highestY = highestYLevels.getOrDefault(getColumnKey(pos.getX(), pos.getZ()), Integer.MIN_VALUE);
-        return pos.getY() == highestY;
+    private static void setColumns(BeamColumnStore store) {
+        columns = store;
+        BeamChangeQueue.setTracking(store != null);
+        BeamChangeQueue.clear();
     }
 
-    private static void checkNearbyBlocks(MinecraftClient client) {
-        if (!SchematicBeamRenderer.isEnabled() || client.player == null || allSchematicBlocks.isEmpty()) {
+    private static void applyWorldChanges(ClientWorld world) {
+        BeamColumnStore store = columns;
+        if (store == null) {
+            BeamChangeQueue.clear();
             return;
         }
 
-        BlockPos playerPos = client.player.getBlockPos();
-        Set<BlockPos> changedBlocks = new HashSet<>();
-
-        // Check each tracked block within radius
-        for (Map.Entry<BlockPos, SchematicBlockInfo> entry : allSchematicBlocks.entrySet()) {
-            BlockPos pos = entry.getKey();
-            // Only process highest blocks in each column
-            if (!isHighestInColumn(pos)) {
-                continue;
-            }
-
-            if (playerPos.getSquaredDistance(pos) <= UPDATE_RADIUS * UPDATE_RADIUS) {
-                BlockState currentState = client.world.getBlockState(pos);
-                boolean matches = blocksMatch(entry.getValue().expectedState, currentState);
-                boolean wasComplete = completeBlocks.contains(pos);
-
-                if (matches && !wasComplete) {
-                    // Block is now complete
-                    completeBlocks.add(pos);
-                    SchematicBeamRenderer.removeBlock(pos);
-                    changedBlocks.add(pos);
-                } else if (!matches && wasComplete) {
-                    // Block was complete but is now incorrect
-                    completeBlocks.remove(pos);
-                    SchematicBeamRenderer.addIncompleteBlock(pos);
-                    changedBlocks.add(pos);
+        int[] changedBlocks = new int[1];
+        BeamChangeQueue.drain(chunk -> {
+            // A freshly loaded chunk can change every column in it
+            int startX = ChunkPos.getPackedX(chunk) << 4;
+            int startZ = ChunkPos.getPackedZ(chunk) << 4;
+            for (int x = startX; x < startX + 16; x++) {
+                for (int z = startZ; z < startZ + 16; z++) {
+                    int column = store.find(x, z);
+                    if (column >= 0 && verifyColumn(world, store, column)) {
+                        changedBlocks[0]++;
+                    }
                 }
             }
+        }, key -> {
+            int column = store.find(BeamChangeQueue.columnX(key), BeamChangeQueue.columnZ(key));
+            if (column >= 0 && verifyColumn(world, store, column)) {
+                changedBlocks[0]++;
+            }
+        });
+
+        if (changedBlocks[0] > 0) {
+            LOGGER.debug("Updated {} blocks from world changes", changedBlocks[0]);
+        }
+    }
+
+    /**
+     * Check a column's top block against the world; true when its beam appeared or disappeared
+     */
+    private static boolean verifyColumn(ClientWorld world, BeamColumnStore store, int column) {
+        int x = store.getX(column);
+        int z = store.getZ(column);
+        // Unloaded chunks read as air; they are checked again when they load
+        if (!world.getChunkManager().isChunkLoaded(x >> 4, z >> 4)) {
+            return false;
         }
 
-        if (!changedBlocks.isEmpty()) {
-            LOGGER.debug("Updated {} blocks in radius {} around player",
-                    changedBlocks.size(), UPDATE_RADIUS);
+        BlockPos pos = new BlockPos(x, store.getTopY(column), z);
+        boolean matches = blocksMatch(store.getExpectedState(column), world.getBlockState(pos));
+        boolean wasComplete = store.isComplete(column);
+
+        if (matches && !wasComplete) {
+            // Block is now complete
+            store.setComplete(column, true);
+            SchematicBeamRenderer.removeBlock(pos);
+            return true;
+        } else if (!matches && wasComplete) {
+            // Block was complete but is now incorrect
+            store.setComplete(column, false);
+            SchematicBeamRenderer.addIncompleteBlock(pos);
+            return true;
+        } else if (!matches) {
+            // Still incomplete, but a block above it may have changed how far its beam reaches
+            SchematicBeamRenderer.updateBeamHeight(pos);
         }
+        return false;
     }
 
     private static boolean blocksMatch(BlockState schematicState, BlockState worldState) {
@@ -192,41 +199,58 @@ public class SchematicBeamCommand {
         // Reset tracking if schematic changed
         if (currentPlacement != placement) {
             currentPlacement = placement;
-            allSchematicBlocks.clear();
-            completeBlocks.clear();
-            highestYLevels.clear();
+            setColumns(null);
             SchematicBeamRenderer.clearBlocks();
         }
 
         LitematicaSchematic schematic = placement.getSchematic();
         Map<String, Box> areas = schematic.getAreas();
+        BlockPos origin = placement.getOrigin();
 
-        // First pass: Find highest block in each column
-        highestYLevels.clear();
-        for (Map.Entry<String, Box> entry : areas.entrySet()) {
-            String regionName = entry.getKey();
-            Box box = entry.getValue();
+        // First pass: Find the placement's bounds
+        List<Map.Entry<BlockPos, PackedRegion>> regions = new ArrayList<>();
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (String regionName : areas.keySet()) {
             LitematicaBlockStateContainer container = schematic.getSubRegionContainer(regionName);
-            BlockPos origin = placement.getOrigin();
             BlockPos regionPos = schematic.getSubRegionPosition(regionName);
 
             if (container == null || origin == null || regionPos == null) {
                 continue;
             }
 
-            BlockPos size = box.getSize();
-            for (int x = 0; x < size.getX(); x++) {
-                for (int z = 0; z < size.getZ(); z++) {
-                    for (int y = size.getY() - 1; y >= 0; y--) {
-                        BlockState schematicState = container.get(x, y, z);
-                        if (schematicState != null && !schematicState.isAir()) {
-                            BlockPos worldPos = new BlockPos(
-                                    origin.getX() + regionPos.getX() + x,
-                                    origin.getY() + regionPos.getY() + y,
-                                    origin.getZ() + regionPos.getZ() + z
-                            );
-                            long columnKey = getColumnKey(worldPos.getX(), worldPos.getZ());
-                            highestYLevels.merge(columnKey, worldPos.getY(), Math::max);
+            PackedRegion region = PackedRegion.of(container);
+            BlockPos regionOrigin = origin.add(regionPos);
+            regions.add(Map.entry(regionOrigin, region));
+
+            minX = Math.min(minX, regionOrigin.getX());
+            minY = Math.min(minY, regionOrigin.getY());
+            minZ = Math.min(minZ, regionOrigin.getZ());
+            maxX = Math.max(maxX, regionOrigin.getX() + region.getSizeX() - 1);
+            maxZ = Math.max(maxZ, regionOrigin.getZ() + region.getSizeZ() - 1);
+        }
+
+        if (regions.isEmpty()) {
+            setColumns(null);
+            SchematicBeamRenderer.clearBlocks();
+            sendMessage("§cSelected placement has no regions");
+            return;
+        }
+
+        // Second pass: Keep the highest block in each column
+        BeamColumnStore store = new BeamColumnStore(minX, minY, minZ, maxX - minX + 1, maxZ - minZ + 1);
+        for (Map.Entry<BlockPos, PackedRegion> entry : regions) {
+            BlockPos regionOrigin = entry.getKey();
+            PackedRegion region = entry.getValue();
+
+            // Decode palette indices straight from the packed array and resolve them through the region palette
+            for (int x = 0; x < region.getSizeX(); x++) {
+                for (int z = 0; z < region.getSizeZ(); z++) {
+                    for (int y = region.getSizeY() - 1; y >= 0; y--) {
+                        BlockState schematicState = region.stateAt(x, y, z);
+                        if (!schematicState.isAir()) {
+                            store.offer(regionOrigin.getX() + x, regionOrigin.getY() + y, regionOrigin.getZ() + z,
+                                    schematicState);
                             break;  // Found highest block in this column
                         }
                     }
@@ -234,57 +258,26 @@ public class SchematicBeamCommand {
             }
         }
 
-        // Second pass: Check blocks and track completion
+        // Third pass: Check the top blocks and track completion
         int incompleteCount = 0;
         SchematicBeamRenderer.clearBlocks();
 
-        for (Map.Entry<String, Box> entry : areas.entrySet()) {
-            String regionName = entry.getKey();
-            Box box = entry.getValue();
-            LitematicaBlockStateContainer container = schematic.getSubRegionContainer(regionName);
-            BlockPos origin = placement.getOrigin();
-            BlockPos regionPos = schematic.getSubRegionPosition(regionName);
-
-            if (container == null || origin == null || regionPos == null) {
+        for (int column = 0; column < store.size(); column++) {
+            if (!store.hasBlock(column)) {
                 continue;
             }
 
-            BlockPos size = box.getSize();
-            for (int x = 0; x < size.getX(); x++) {
-                for (int y = 0; y < size.getY(); y++) {
-                    for (int z = 0; z < size.getZ(); z++) {
-                        BlockState schematicState = container.get(x, y, z);
-                        if (schematicState == null || schematicState.isAir()) {
-                            continue;
-                        }
-
-                        BlockPos worldPos = new BlockPos(
-                                origin.getX() + regionPos.getX() + x,
-                                origin.getY() + regionPos.getY() + y,
-                                origin.getZ() + regionPos.getZ() + z
-                        );
-
-                        // Store all schematic blocks for reference
-                        allSchematicBlocks.put(worldPos, new SchematicBlockInfo(
-                                schematicState, regionName, regionPos));
-
-                        // Only process highest blocks
-                        if (!isHighestInColumn(worldPos)) {
-                            continue;
-                        }
-
-                        BlockState worldState = client.world.getBlockState(worldPos);
-                        if (!blocksMatch(schematicState, worldState)) {
-                            SchematicBeamRenderer.addIncompleteBlock(worldPos);
-                            incompleteCount++;
-                        } else {
-                            completeBlocks.add(worldPos);
-                        }
-                    }
-                }
+            BlockPos worldPos = new BlockPos(store.getX(column), store.getTopY(column), store.getZ(column));
+            BlockState worldState = client.world.getBlockState(worldPos);
+            if (!blocksMatch(store.getExpectedState(column), worldState)) {
+                SchematicBeamRenderer.addIncompleteBlock(worldPos);
+                incompleteCount++;
+            } else {
+                store.setComplete(column, true);
             }
         }
+        setColumns(store);
 
         sendMessage(String.format("§7Found %d incomplete blocks (top layer only)", incompleteCount));
     }
-}
\ No newline at end of file
+}
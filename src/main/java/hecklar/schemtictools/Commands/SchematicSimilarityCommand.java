@@ -4,9 +4,20 @@ import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import fi.dy.masa.litematica.data.DataManager;
-import fi.dy.masa.litematica.schematic.LitematicaSchematic;
-import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainer;
-import fi.dy.masa.litematica.selection.Box;
+import hecklar.schemtictools.Index.FileStamp;
+import hecklar.schemtictools.Scan.JobManager;
+import hecklar.schemtictools.Scan.ScanExecutor;
+import hecklar.schemtictools.Scan.ScanJob;
+import hecklar.schemtictools.Scan.TopK;
+import hecklar.schemtictools.Similarity.AlignedComparator;
+import hecklar.schemtictools.Similarity.FingerprintStore;
+import hecklar.schemtictools.Similarity.LayerPyramid;
+import hecklar.schemtictools.Similarity.MapColorGrid;
+import hecklar.schemtictools.Similarity.MinHashIndex;
+import hecklar.schemtictools.Similarity.MinHasher;
+import hecklar.schemtictools.Similarity.PatternFinder;
+import hecklar.schemtictools.Similarity.TopLayerComparator;
+import hecklar.schemtictools.Similarity.TopLayerGrid;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
 import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
 import net.minecraft.block.Block;
@@ -15,16 +26,18 @@ import net.minecraft.block.Blocks;
 import net.minecraft.registry.Registries;
 import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
-import net.minecraft.util.math.BlockPos;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Command to find the most similar schematic in a directory compared to a reference schematic
@@ -110,6 +123,9 @@ public class SchematicSimilarityCommand {
     }
     private static final Logger LOGGER = LogManager.getLogger("SchematicSimilarity");
 
+    private static final int TOP_RESULTS = 10;
+    private static final double FIND_MIN_SIMILARITY = 0.9;
+
     // Static variable to store the selected block filter
     private static BlockState filterBlock = null;
 
@@ -119,15 +135,33 @@ public class SchematicSimilarityCommand {
         final double similarity;
         final int matchingBlocks;
         final int totalBlocks;
+        final String alignment; // Where the reference sits in the schematic, aligned comparisons and searches only
 
         SimilarityResult(String path, double similarity, int matching, int total) {
+            this(path, similarity, matching, total, null);
+        }
+
+        SimilarityResult(String path, double similarity, int matching, int total, String alignment) {
             this.schematicPath = path;
             this.similarity = similarity;
             this.matchingBlocks = matching;
             this.totalBlocks = total;
+            this.alignment = alignment;
         }
     }
 
+    /**
+     * How the reference is matched against the directory
+     */
+    private enum Mode {
+        FULL,    // Exact comparison against every schematic
+        INDEX,     // Exact comparison against the LSH candidates only
+        ALIGNED,   // Best rotation, mirror and offset against every schematic
+        MAP_COLOR, // How close the schematics look on a map
+        TOP,       // Only the best few, ruling out the rest from their layer pyramids
+        FIND       // Where the reference appears inside larger schematics
+    }
+
     public static void register(CommandDispatcher<FabricClientCommandSource> dispatcher) {
         dispatcher.register(ClientCommandManager.literal("tools")
                 .then(ClientCommandManager.literal("compare")
@@ -140,8 +174,63 @@ public class SchematicSimilarityCommand {
                                 })
                                 .executes(context -> {
                                     String args = StringArgumentType.getString(context, "args");
-                                    return executeComparisonFromArgs(args, context.getSource());
+                                    return executeComparisonFromArgs(args, Mode.FULL, context.getSource());
                                 }))
+                        // Only compare against the candidates from the MinHash index
+                        .then(ClientCommandManager.literal("index")
+                                .then(ClientCommandManager.argument("args", StringArgumentType.greedyString())
+                                        .suggests((context, builder) -> {
+                                            suggestSchematicsAndDirectories(builder);
+                                            return builder.buildFuture();
+                                        })
+                                        .executes(context -> {
+                                            String args = StringArgumentType.getString(context, "args");
+                                            return executeComparisonFromArgs(args, Mode.INDEX, context.getSource());
+                                        })))
+                        // Find the best rotation, mirror and offset for every schematic
+                        .then(ClientCommandManager.literal("aligned")
+                                .then(ClientCommandManager.argument("args", StringArgumentType.greedyString())
+                                        .suggests((context, builder) -> {
+                                            suggestSchematicsAndDirectories(builder);
+                                            return builder.buildFuture();
+                                        })
+                                        .executes(context -> {
+                                            String args = StringArgumentType.getString(context, "args");
+                                            return executeComparisonFromArgs(args, Mode.ALIGNED, context.getSource());
+                                        })))
+                        // Compare what the map art looks like instead of which blocks it uses
+                        .then(ClientCommandManager.literal("mapcolor")
+                                .then(ClientCommandManager.argument("args", StringArgumentType.greedyString())
+                                        .suggests((context, builder) -> {
+                                            suggestSchematicsAndDirectories(builder);
+                                            return builder.buildFuture();
+                                        })
+                                        .executes(context -> {
+                                            String args = StringArgumentType.getString(context, "args");
+                                            return executeComparisonFromArgs(args, Mode.MAP_COLOR, context.getSource());
+                                        })))
+                        // Only find the most similar schematics, skipping the rest as early as possible
+                        .then(ClientCommandManager.literal("top")
+                                .then(ClientCommandManager.argument("args", StringArgumentType.greedyString())
+                                        .suggests((context, builder) -> {
+                                            suggestSchematicsAndDirectories(builder);
+                                            return builder.buildFuture();
+                                        })
+                                        .executes(context -> {
+                                            String args = StringArgumentType.getString(context, "args");
+                                            return executeComparisonFromArgs(args, Mode.TOP, context.getSource());
+                                        })))
+                        // Find the reference as a part of larger schematics
+                        .then(ClientCommandManager.literal("find")
+                                .then(ClientCommandManager.argument("args", StringArgumentType.greedyString())
+                                        .suggests((context, builder) -> {
+                                            suggestSchematicsAndDirectories(builder);
+                                            return builder.buildFuture();
+                                        })
+                                        .executes(context -> {
+                                            String args = StringArgumentType.getString(context, "args");
+                                            return executeComparisonFromArgs(args, Mode.FIND, context.getSource());
+                                        })))
                         // Set block filter command
                         .then(ClientCommandManager.literal("setblock")
                                 .then(ClientCommandManager.argument("block", StringArgumentType.string())
@@ -173,7 +262,7 @@ public class SchematicSimilarityCommand {
                                 }))));
     }
 
-    private static int executeComparisonFromArgs(String args, FabricClientCommandSource source) {
+    private static int executeComparisonFromArgs(String args, Mode mode, FabricClientCommandSource source) {
         // Parse the arguments to extract schematic name and directory
         String[] parsed = parseArguments(args);
 
@@ -184,7 +273,7 @@ public class SchematicSimilarityCommand {
             return 0;
         }
 
-        return executeComparison(parsed[0], parsed[1], source);
+        return executeComparison(parsed[0], parsed[1], mode, source);
     }
 
     private static String[] parseArguments(String args) {
@@ -265,7 +354,8 @@ public class SchematicSimilarityCommand {
         return null;
     }
 
-    private static int executeComparison(String schematicName, String directory, FabricClientCommandSource source) {
+    private static int executeComparison(String schematicName, String directory, Mode mode,
+                                         FabricClientCommandSource source) {
         try {
             // Validate inputs
             File baseDir = DataManager.getSchematicsBaseDirectory();
@@ -294,300 +384,514 @@ public class SchematicSimilarityCommand {
                 return 0;
             }
 
-            source.sendFeedback(Text.literal("§6Loading reference schematic: §f" + referenceFile.getName()));
+            // Loading and comparing runs as a background job so the game keeps rendering and it can be cancelled
+            JobManager.start("compare " + schematicName, source, job -> {
+                try {
+                    switch (mode) {
+                        case INDEX -> compareWithIndex(schematicName, directory, referenceFile, targetDir, baseDir, job, source);
+                        case ALIGNED -> compareAligned(schematicName, directory, referenceFile, targetDir, baseDir, job, source);
+                        case MAP_COLOR -> compareMapColors(schematicName, directory, referenceFile, targetDir, baseDir, job, source);
+                        case TOP -> compareTop(schematicName, directory, referenceFile, targetDir, baseDir, job, source);
+                        case FIND -> findPattern(schematicName, directory, referenceFile, targetDir, baseDir, job, source);
+                        default -> compareAgainstDirectory(schematicName, directory, referenceFile, targetDir, baseDir, job, source);
+                    }
+                } finally {
+                    // Keep the grids extracted so far, even when the job is cancelled part way
+                    try {
+                        FingerprintStore.get(baseDir).save();
+                    } catch (IOException e) {
+                        LOGGER.warn("Failed to save fingerprint store", e);
+                    }
+                }
+            });
+            return 1;
 
-            // Load reference schematic
-            LitematicaSchematic refSchematic = LitematicaSchematic.createFromFile(
-                    referenceFile.getParentFile().toPath().toFile(),
-                    referenceFile.getName()
-            );
+        } catch (Exception e) {
+            LOGGER.error("Error during similarity comparison", e);
+            source.sendFeedback(Text.literal("§cError during comparison: " + e.getMessage()));
+            return 0;
+        }
+    }
 
-            if (refSchematic == null) {
-                source.sendFeedback(Text.literal("§cFailed to load reference schematic"));
-                return 0;
-            }
+    private static void compareAgainstDirectory(String schematicName, String directory, File referenceFile,
+                                                File targetDir, File baseDir, ScanJob job,
+                                                FabricClientCommandSource source) throws Exception {
+        Block onlyBlock = filterBlock != null ? filterBlock.getBlock() : null;
+        TopLayerGrid refTopLayer = loadReferenceLayer(referenceFile, baseDir, onlyBlock, job, source);
+        if (refTopLayer == null) {
+            return;
+        }
 
-            // Extract reference schematic top blocks (with filter if set)
-            Map<BlockPos, BlockState> refTopBlocks = extractTopBlocks(refSchematic);
-            if (filterBlock != null) {
-                refTopBlocks = filterBlocksByType(refTopBlocks, filterBlock);
-            }
+        ScanExecutor.sendFeedback(source, "§6Analyzing schematics in directory: §f" + directory);
 
-            if (refTopBlocks.isEmpty()) {
-                if (filterBlock != null) {
-                    source.sendFeedback(Text.literal("§cReference schematic contains no " + filterBlock.getBlock().getName().getString() + " blocks"));
-                } else {
-                    source.sendFeedback(Text.literal("§cReference schematic contains no blocks"));
-                }
-                return 0;
-            }
+        List<File> schematicFiles = listComparedFiles(referenceFile, targetDir, baseDir);
+        if (schematicFiles.isEmpty()) {
+            ScanExecutor.sendFeedback(source, "§cNo schematics found in directory");
+            return;
+        }
 
-            String blockTypeText = filterBlock != null ?
-                    filterBlock.getBlock().getName().getString() + " blocks" : "top blocks";
-            source.sendFeedback(Text.literal("§7Reference schematic has §f" + refTopBlocks.size() + "§7 " + blockTypeText));
-            source.sendFeedback(Text.literal("§6Analyzing schematics in directory: §f" + directory));
+        ScanExecutor.sendFeedback(source, "§7Found §f" + schematicFiles.size() + "§7 schematics to analyze");
 
-            // Find all schematics in directory
-            List<File> schematicFiles = findAllSchematics(targetDir);
-            if (schematicFiles.isEmpty()) {
-                source.sendFeedback(Text.literal("§cNo schematics found in directory"));
-                return 0;
+        // Every file is compared on its own against the shared, read-only reference layer
+        List<SimilarityResult> results = ScanExecutor.forkJoin(job, schematicFiles,
+                file -> compareFileSafely(file, refTopLayer, onlyBlock, baseDir, job));
+
+        showResults(schematicName, directory, results, null, source);
+    }
+
+    /**
+     * Only compare exactly against the schematics that share an LSH bucket with the reference's MinHash signature
+     */
+    private static void compareWithIndex(String schematicName, String directory, File referenceFile,
+                                         File targetDir, File baseDir, ScanJob job,
+                                         FabricClientCommandSource source) throws Exception {
+        if (filterBlock != null) {
+            ScanExecutor.sendFeedback(source, "§cThe similarity index covers all blocks; use /tools compare clearblock first");
+            return;
+        }
+
+        TopLayerGrid refTopLayer = loadReferenceLayer(referenceFile, baseDir, null, job, source);
+        if (refTopLayer == null) {
+            return;
+        }
+
+        MinHashIndex index = MinHashIndex.get(baseDir);
+        MinHashIndex.RefreshResult refresh;
+        try {
+            refresh = index.refresh(baseDir, targetDir, job);
+        } finally {
+            // Keep whatever was hashed, even when the job is cancelled part way
+            try {
+                index.save();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to save MinHash index", e);
             }
+        }
 
-            source.sendFeedback(Text.literal("§7Found §f" + schematicFiles.size() + "§7 schematics to analyze"));
+        if (refresh.reindexed > 0 || refresh.removed > 0) {
+            ScanExecutor.sendFeedback(source, String.format("§7Similarity index updated: §f%d§7 file(s) hashed, §f%d§7 removed §8(%s)",
+                    refresh.reindexed, refresh.removed, job.describeElapsed()));
+        }
 
-            // Calculate similarities
-            List<SimilarityResult> results = new ArrayList<>();
-            SimilarityResult highestResult = null;
-            double highestSimilarity = 0.0;
+        String referencePath = FileStamp.relativePath(baseDir, referenceFile);
+        List<MinHashIndex.Candidate> candidates = new ArrayList<>();
+        for (MinHashIndex.Candidate candidate : index.candidates(MinHasher.signature(refTopLayer),
+                FileStamp.directoryPrefix(baseDir, targetDir))) {
+            if (!candidate.path.equals(referencePath)) {
+                candidates.add(candidate);
+            }
+        }
 
-            for (File file : schematicFiles) {
-                // Skip if it's the same file as reference
-                if (file.getAbsolutePath().equals(referenceFile.getAbsolutePath())) {
-                    continue;
-                }
+        ScanExecutor.sendFeedback(source, String.format("§7Comparing exactly against §f%d§7 candidate(s) out of §f%d§7 schematics",
+                candidates.size(), refresh.files));
 
-                try {
-                    LitematicaSchematic schematic = LitematicaSchematic.createFromFile(
-                            file.getParentFile().toPath().toFile(),
-                            file.getName()
-                    );
-
-                    if (schematic == null) {
-                        LOGGER.warn("Failed to load schematic: " + file.getName());
-                        continue;
-                    }
+        List<File> candidateFiles = new ArrayList<>(candidates.size());
+        for (MinHashIndex.Candidate candidate : candidates) {
+            candidateFiles.add(new File(baseDir, candidate.path));
+        }
 
-                    Map<BlockPos, BlockState> topBlocks = extractTopBlocks(schematic);
-                    if (filterBlock != null) {
-                        topBlocks = filterBlocksByType(topBlocks, filterBlock);
-                    }
+        List<SimilarityResult> results = ScanExecutor.forkJoin(job, candidateFiles,
+                file -> compareFileSafely(file, refTopLayer, null, baseDir, job));
 
-                    if (topBlocks.isEmpty()) {
-                        continue;
-                    }
+        showResults(schematicName, directory, results,
+                "§7Only schematics sharing an LSH bucket with the reference were compared", source);
+    }
 
-                    // Calculate similarity
-                    double similarity = calculateSimilarity(refTopBlocks, topBlocks);
-                    int matchingBlocks = countMatchingBlocks(refTopBlocks, topBlocks);
+    /**
+     * Match every schematic against all 8 rotations and mirrors of the reference at its best offset.
+     * Each comparison is a batch of FFTs, so the files are spread over the fork-join workers.
+     */
+    private static void compareAligned(String schematicName, String directory, File referenceFile,
+                                       File targetDir, File baseDir, ScanJob job,
+                                       FabricClientCommandSource source) throws Exception {
+        Block onlyBlock = filterBlock != null ? filterBlock.getBlock() : null;
+        TopLayerGrid refTopLayer = loadReferenceLayer(referenceFile, baseDir, onlyBlock, job, source);
+        if (refTopLayer == null) {
+            return;
+        }
 
-                    String relativePath = getRelativePath(baseDir, file);
-                    SimilarityResult result = new SimilarityResult(
-                            relativePath,
-                            similarity,
-                            matchingBlocks,
-                            Math.max(refTopBlocks.size(), topBlocks.size())
-                    );
+        List<File> schematicFiles = listComparedFiles(referenceFile, targetDir, baseDir);
+        if (schematicFiles.isEmpty()) {
+            ScanExecutor.sendFeedback(source, "§cNo schematics found in directory");
+            return;
+        }
 
-                    results.add(result);
+        ScanExecutor.sendFeedback(source, "§7Aligning against §f" + schematicFiles.size() + "§7 schematics (rotations, mirrors and offsets)");
 
-                    // Track highest similarity
-                    if (similarity > highestSimilarity) {
-                        highestSimilarity = similarity;
-                        highestResult = result;
-                    }
+        // Shared by all workers; it only caches the reference's spectra
+        AlignedComparator comparator = new AlignedComparator(refTopLayer);
 
-                } catch (Exception e) {
-                    LOGGER.error("Error analyzing schematic: " + file.getName(), e);
+        List<SimilarityResult> results = ScanExecutor.forkJoin(job, schematicFiles, file -> {
+            try {
+                TopLayerGrid topLayer = gridOf(file, baseDir, onlyBlock, job);
+                if (topLayer.isEmpty()) {
+                    return null;
                 }
+
+                AlignedComparator.Alignment alignment = comparator.compare(topLayer, job);
+                return new SimilarityResult(
+                        getRelativePath(baseDir, file),
+                        alignment.similarity(),
+                        alignment.matching,
+                        Math.max(refTopLayer.getCount(), topLayer.getCount()),
+                        alignment.describe()
+                );
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.error("Error analyzing schematic: " + file.getName(), e);
+                return null;
             }
+        });
 
-            // Sort results by similarity
-            results.sort((a, b) -> Double.compare(b.similarity, a.similarity));
-
-            // Display results
-            source.sendFeedback(Text.literal("§a=== Similarity Analysis Complete ==="));
-
-            if (highestResult != null) {
-                source.sendFeedback(Text.literal(""));
-                source.sendFeedback(Text.literal("§6Highest Similarity Found:"));
-                source.sendFeedback(Text.literal(String.format("§f%s", highestResult.schematicPath)));
-                source.sendFeedback(Text.literal(String.format("§aSimilarity: §f%.2f%%", highestResult.similarity * 100)));
-                source.sendFeedback(Text.literal(String.format("§7Matching blocks: §f%d/%d",
-                        highestResult.matchingBlocks, highestResult.totalBlocks)));
-
-                // Show top 5 results if there are more
-                if (results.size() > 1) {
-                    source.sendFeedback(Text.literal(""));
-                    String filterText = filterBlock != null ?
-                            " (based on " + filterBlock.getBlock().getName().getString() + " positions)" : "";
-                    source.sendFeedback(Text.literal("§7Top 5 Similar Schematics" + filterText + ":"));
-
-                    int count = 0;
-                    for (SimilarityResult result : results) {
-                        if (count >= 5) break;
-                        source.sendFeedback(Text.literal(String.format("§7%d. §f%.1f%% §8- §7%s",
-                                count + 1,
-                                result.similarity * 100,
-                                result.schematicPath)));
-                        count++;
-                    }
-                }
+        showResults(schematicName, directory, results,
+                "§7Each schematic was compared at its best rotation, mirror and offset §8(" + job.describeElapsed() + ")", source);
+    }
 
-                // Generate detailed report
-                generateReport(schematicName, directory, results, source);
+    /**
+     * Compare the map colors of every schematic's top layer, shaded by height steps, so map art built
+     * from different blocks with the same colors still matches
+     */
+    private static void compareMapColors(String schematicName, String directory, File referenceFile,
+                                         File targetDir, File baseDir, ScanJob job,
+                                         FabricClientCommandSource source) throws Exception {
+        if (filterBlock != null) {
+            ScanExecutor.sendFeedback(source, "§cMap colors are compared over all blocks; use /tools compare clearblock first");
+            return;
+        }
 
-            } else {
-                source.sendFeedback(Text.literal("§cNo similar schematics found"));
-            }
+        TopLayerGrid refTopLayer = loadReferenceLayer(referenceFile, baseDir, null, job, source);
+        if (refTopLayer == null) {
+            return;
+        }
 
-            return 1;
+        MapColorGrid refColors = MapColorGrid.of(refTopLayer);
+        if (refColors.isEmpty()) {
+            ScanExecutor.sendFeedback(source, "§cReference schematic has no blocks that show on a map");
+            return;
+        }
 
-        } catch (Exception e) {
-            LOGGER.error("Error during similarity comparison", e);
-            source.sendFeedback(Text.literal("§cError during comparison: " + e.getMessage()));
-            return 0;
+        List<File> schematicFiles = listComparedFiles(referenceFile, targetDir, baseDir);
+        if (schematicFiles.isEmpty()) {
+            ScanExecutor.sendFeedback(source, "§cNo schematics found in directory");
+            return;
         }
+
+        ScanExecutor.sendFeedback(source, "§7Comparing map colors of §f" + schematicFiles.size() + "§7 schematics");
+
+        List<SimilarityResult> results = ScanExecutor.forkJoin(job, schematicFiles, file -> {
+            try {
+                MapColorGrid colors = MapColorGrid.of(gridOf(file, baseDir, null, job));
+                if (colors.isEmpty()) {
+                    return null;
+                }
+
+                MapColorGrid.Match match = MapColorGrid.compare(refColors, colors);
+                return new SimilarityResult(
+                        getRelativePath(baseDir, file),
+                        match.similarity(),
+                        (int) Math.round(match.matching),
+                        Math.max(refColors.getCount(), colors.getCount())
+                );
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.error("Error analyzing schematic: " + file.getName(), e);
+                return null;
+            }
+        });
+
+        showResults(schematicName, directory, results,
+                "§7Scored by map color closeness; matching counts near colors partly", source);
     }
 
     /**
-     * Filter blocks map to only include blocks of a specific type
+     * Keep only the best {@link #TOP_RESULTS} matches. Every candidate is first judged from its layer pyramid,
+     * coarsest level first, and dropped as soon as even its upper bound can't beat the current top results;
+     * only the survivors have their full grids read and compared.
      */
-    private static Map<BlockPos, BlockState> filterBlocksByType(Map<BlockPos, BlockState> blocks, BlockState filterType) {
-        Map<BlockPos, BlockState> filtered = new HashMap<>();
+    private static void compareTop(String schematicName, String directory, File referenceFile,
+                                   File targetDir, File baseDir, ScanJob job,
+                                   FabricClientCommandSource source) throws Exception {
+        if (filterBlock != null) {
+            ScanExecutor.sendFeedback(source, "§cLayer pyramids cover all blocks; use /tools compare clearblock first");
+            return;
+        }
 
-        for (Map.Entry<BlockPos, BlockState> entry : blocks.entrySet()) {
-            if (entry.getValue().getBlock() == filterType.getBlock()) {
-                filtered.put(entry.getKey(), entry.getValue());
+        TopLayerGrid refTopLayer = loadReferenceLayer(referenceFile, baseDir, null, job, source);
+        if (refTopLayer == null) {
+            return;
+        }
+        LayerPyramid refPyramid = LayerPyramid.of(refTopLayer);
+
+        List<File> schematicFiles = listComparedFiles(referenceFile, targetDir, baseDir);
+        if (schematicFiles.isEmpty()) {
+            ScanExecutor.sendFeedback(source, "§cNo schematics found in directory");
+            return;
+        }
+
+        ScanExecutor.sendFeedback(source, "§7Looking for the §f" + TOP_RESULTS + "§7 most similar of §f" + schematicFiles.size() + "§7 schematics");
+
+        FingerprintStore store = FingerprintStore.get(baseDir);
+        TopResults top = new TopResults();
+        AtomicIntegerArray rejected = new AtomicIntegerArray(LayerPyramid.LEVELS);
+
+        ScanExecutor.forkJoin(job, schematicFiles, file -> {
+            try {
+                LayerPyramid pyramid = store.pyramid(file, job);
+                if (pyramid.getCount() == 0) {
+                    return null;
+                }
+
+                for (int level = 0; level < LayerPyramid.LEVELS; level++) {
+                    if (LayerPyramid.upperBound(refPyramid, pyramid, level) < top.threshold) {
+                        rejected.incrementAndGet(level);
+                        return null;
+                    }
+                }
+
+                SimilarityResult result = compareFile(file, refTopLayer, null, baseDir, job);
+                if (result != null) {
+                    top.offer(result);
+                }
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.error("Error analyzing schematic: " + file.getName(), e);
             }
+            return null;
+        });
+
+        int totalRejected = 0;
+        StringBuilder perLevel = new StringBuilder();
+        for (int level = 0; level < LayerPyramid.LEVELS; level++) {
+            totalRejected += rejected.get(level);
+            perLevel.append(level == 0 ? "" : " / ").append(rejected.get(level));
         }
 
-        return filtered;
+        showResults(schematicName, directory, top.results(), String.format(
+                "§7Ruled out §f%d§7 of §f%d§7 schematics from their layer pyramids §8(per level: %s)",
+                totalRejected, schematicFiles.size(), perLevel), source);
     }
 
     /**
-     * Extract the top (highest Y) blocks from each x,z position in the schematic
+     * The best results so far, shared by the fork-join workers. Offering takes the lock, but most candidates
+     * are rejected by reading the volatile threshold alone.
      */
-    private static Map<BlockPos, BlockState> extractTopBlocks(LitematicaSchematic schematic) {
-        Map<BlockPos, BlockState> topBlocks = new HashMap<>();
-
-        for (String regionName : schematic.getAreas().keySet()) {
-            LitematicaBlockStateContainer container = schematic.getSubRegionContainer(regionName);
-            Box box = schematic.getAreas().get(regionName);
-            BlockPos regionPos = schematic.getSubRegionPosition(regionName);
-
-            if (container == null || box == null || regionPos == null) continue;
-
-            BlockPos size = box.getSize();
-
-            // For each x,z coordinate, find the top non-air block
-            for (int x = 0; x < size.getX(); x++) {
-                for (int z = 0; z < size.getZ(); z++) {
-                    for (int y = size.getY() - 1; y >= 0; y--) {
-                        BlockState state = container.get(x, y, z);
-                        if (state != null && !state.isAir()) {
-                            // Convert to global coordinates
-                            BlockPos globalPos = new BlockPos(
-                                    regionPos.getX() + x,
-                                    regionPos.getY() + y,
-                                    regionPos.getZ() + z
-                            );
-                            topBlocks.put(globalPos, state);
-                            break; // Found the top block for this column
-                        }
-                    }
-                }
+    private static class TopResults {
+        private final TopK<SimilarityResult> top =
+                new TopK<>(TOP_RESULTS, Comparator.comparingDouble(result -> result.similarity));
+        volatile double threshold = 0.0;
+
+        synchronized void offer(SimilarityResult result) {
+            top.offer(result);
+            if (top.isFull()) {
+                threshold = top.peekSmallest().similarity;
             }
         }
 
-        return topBlocks;
+        synchronized List<SimilarityResult> results() {
+            return top.sortedDescending();
+        }
     }
 
     /**
-     * Calculate similarity between two sets of blocks using normalized positions
+     * Search every schematic's top layer for places where the reference's top layer appears, at least
+     * {@link #FIND_MIN_SIMILARITY} of its blocks matching. Each schematic is listed with its best place.
      */
-    private static double calculateSimilarity(Map<BlockPos, BlockState> blocks1, Map<BlockPos, BlockState> blocks2) {
-        if (blocks1.isEmpty() || blocks2.isEmpty()) return 0.0;
+    private static void findPattern(String schematicName, String directory, File referenceFile,
+                                    File targetDir, File baseDir, ScanJob job,
+                                    FabricClientCommandSource source) throws Exception {
+        Block onlyBlock = filterBlock != null ? filterBlock.getBlock() : null;
+        TopLayerGrid refTopLayer = loadReferenceLayer(referenceFile, baseDir, onlyBlock, job, source);
+        if (refTopLayer == null) {
+            return;
+        }
+
+        List<File> schematicFiles = listComparedFiles(referenceFile, targetDir, baseDir);
+        if (schematicFiles.isEmpty()) {
+            ScanExecutor.sendFeedback(source, "§cNo schematics found in directory");
+            return;
+        }
 
-        // Normalize coordinates to handle position-independent comparison
-        BlockPos offset1 = findMinCorner(blocks1.keySet());
-        BlockPos offset2 = findMinCorner(blocks2.keySet());
+        ScanExecutor.sendFeedback(source, String.format("§7Searching §f%d§7 schematics for the §f%dx%d§7 reference",
+                schematicFiles.size(), refTopLayer.getWidth(), refTopLayer.getDepth()));
 
-        Map<BlockPos, BlockState> normalized1 = normalizeBlocks(blocks1, offset1);
-        Map<BlockPos, BlockState> normalized2 = normalizeBlocks(blocks2, offset2);
+        // Shared by all workers; it only holds the reference's tile hashes, votes are counted per find call
+        PatternFinder finder = new PatternFinder(refTopLayer, FIND_MIN_SIMILARITY);
 
-        // Find all unique positions
-        Set<BlockPos> allPositions = new HashSet<>(normalized1.keySet());
-        allPositions.addAll(normalized2.keySet());
-        int totalPositions = allPositions.size();
+        List<SimilarityResult> results = ScanExecutor.forkJoin(job, schematicFiles, file -> {
+            try {
+                List<PatternFinder.Hit> hits = finder.find(gridOf(file, baseDir, onlyBlock, job));
+                if (hits.isEmpty()) {
+                    return null;
+                }
 
-        if (totalPositions == 0) return 0.0;
+                PatternFinder.Hit best = hits.get(0);
+                String place = "offset " + best.offsetX + ", " + best.offsetZ + " from the north-west corner";
+                if (hits.size() > 1) {
+                    place += " (" + (hits.size() - 1) + " more)";
+                }
+                return new SimilarityResult(
+                        getRelativePath(baseDir, file),
+                        best.similarity(),
+                        best.matching,
+                        best.total,
+                        place
+                );
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                LOGGER.error("Error analyzing schematic: " + file.getName(), e);
+                return null;
+            }
+        });
 
-        int matchingBlocks = 0;
+        showResults(schematicName, directory, results,
+                String.format("§7Found in §f%d§7 of §f%d§7 schematics with at least %.0f%% of its blocks matching §8(%s)",
+                        results.size(), schematicFiles.size(), FIND_MIN_SIMILARITY * 100, job.describeElapsed()), source);
+    }
 
-        // Count matching blocks
-        for (BlockPos pos : allPositions) {
-            BlockState state1 = normalized1.get(pos);
-            BlockState state2 = normalized2.get(pos);
+    /**
+     * Get the reference's top layer, telling the player why when there is nothing to compare
+     */
+    private static TopLayerGrid loadReferenceLayer(File referenceFile, File baseDir, Block onlyBlock, ScanJob job,
+                                                   FabricClientCommandSource source) {
+        ScanExecutor.sendFeedback(source, "§6Loading reference schematic: §f" + referenceFile.getName());
+
+        // Extract reference schematic top blocks (with filter if set)
+        TopLayerGrid refTopLayer = FingerprintStore.get(baseDir).grid(referenceFile, job);
+        if (onlyBlock != null) {
+            refTopLayer = refTopLayer.filter(onlyBlock);
+        }
 
-            if (state1 != null && state2 != null && state1.equals(state2)) {
-                matchingBlocks++;
+        if (refTopLayer.isEmpty()) {
+            if (onlyBlock != null) {
+                ScanExecutor.sendFeedback(source, "§cReference schematic contains no " + onlyBlock.getName().getString() + " blocks");
+            } else {
+                ScanExecutor.sendFeedback(source, "§cReference schematic contains no blocks");
             }
+            return null;
         }
 
-        return (double) matchingBlocks / totalPositions;
+        String blockTypeText = onlyBlock != null ?
+                onlyBlock.getName().getString() + " blocks" : "top blocks";
+        ScanExecutor.sendFeedback(source, "§7Reference schematic has §f" + refTopLayer.getCount() + "§7 " + blockTypeText);
+        return refTopLayer;
     }
 
     /**
-     * Count the number of matching blocks (helper method for reporting)
+     * Compare one schematic's top layer against the reference; null when it has nothing to compare
      */
-    private static int countMatchingBlocks(Map<BlockPos, BlockState> blocks1, Map<BlockPos, BlockState> blocks2) {
-        BlockPos offset1 = findMinCorner(blocks1.keySet());
-        BlockPos offset2 = findMinCorner(blocks2.keySet());
+    private static SimilarityResult compareFile(File file, TopLayerGrid refTopLayer, Block onlyBlock,
+                                                File baseDir, ScanJob job) {
+        TopLayerGrid topLayer = gridOf(file, baseDir, onlyBlock, job);
+        if (topLayer.isEmpty()) {
+            return null;
+        }
 
-        Map<BlockPos, BlockState> normalized1 = normalizeBlocks(blocks1, offset1);
-        Map<BlockPos, BlockState> normalized2 = normalizeBlocks(blocks2, offset2);
+        // Similarity and matching count come out of the same pass over both grids
+        TopLayerComparator.Match match = TopLayerComparator.compare(refTopLayer, topLayer);
 
-        Set<BlockPos> allPositions = new HashSet<>(normalized1.keySet());
-        allPositions.addAll(normalized2.keySet());
+        return new SimilarityResult(
+                getRelativePath(baseDir, file),
+                match.similarity(),
+                match.matching,
+                Math.max(refTopLayer.getCount(), topLayer.getCount())
+        );
+    }
 
-        int matchingBlocks = 0;
-        for (BlockPos pos : allPositions) {
-            BlockState state1 = normalized1.get(pos);
-            BlockState state2 = normalized2.get(pos);
+    /**
+     * A schematic's top layer from the fingerprint store, narrowed to the filter block if one is set
+     */
+    private static TopLayerGrid gridOf(File file, File baseDir, Block onlyBlock, ScanJob job) {
+        TopLayerGrid topLayer = FingerprintStore.get(baseDir).grid(file, job);
+        return onlyBlock != null ? topLayer.filter(onlyBlock) : topLayer;
+    }
 
-            if (state1 != null && state2 != null && state1.equals(state2)) {
-                matchingBlocks++;
+    /**
+     * All schematics in the directory except the reference; fingerprints of deleted files are dropped on the way
+     */
+    private static List<File> listComparedFiles(File referenceFile, File targetDir, File baseDir) {
+        List<File> schematicFiles = new ArrayList<>();
+        Set<String> presentPaths = new HashSet<>();
+
+        for (File file : findAllSchematics(targetDir)) {
+            presentPaths.add(FileStamp.relativePath(baseDir, file));
+            if (!file.getAbsolutePath().equals(referenceFile.getAbsolutePath())) {
+                schematicFiles.add(file);
             }
         }
 
-        return matchingBlocks;
+        FingerprintStore.get(baseDir).retainUnder(FileStamp.directoryPrefix(baseDir, targetDir), presentPaths);
+        return schematicFiles;
     }
 
     /**
-     * Find the minimum corner of a set of positions
+     * {@link #compareFile} for the fork-join workers: failures are logged and skipped, cancellation still stops the job
      */
-    private static BlockPos findMinCorner(Set<BlockPos> positions) {
-        int minX = Integer.MAX_VALUE;
-        int minY = Integer.MAX_VALUE;
-        int minZ = Integer.MAX_VALUE;
-
-        for (BlockPos pos : positions) {
-            minX = Math.min(minX, pos.getX());
-            minY = Math.min(minY, pos.getY());
-            minZ = Math.min(minZ, pos.getZ());
+    private static SimilarityResult compareFileSafely(File file, TopLayerGrid refTopLayer, Block onlyBlock,
+                                                      File baseDir, ScanJob job) {
+        try {
+            return compareFile(file, refTopLayer, onlyBlock, baseDir, job);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            LOGGER.error("Error analyzing schematic: " + file.getName(), e);
+            return null;
         }
-
-        return new BlockPos(minX, minY, minZ);
     }
 
     /**
-     * Normalize block positions relative to an offset
+     * Show the best match and the top 5 in chat, then write the full report
      */
-    private static Map<BlockPos, BlockState> normalizeBlocks(Map<BlockPos, BlockState> blocks, BlockPos offset) {
-        Map<BlockPos, BlockState> normalized = new HashMap<>();
-
-        for (Map.Entry<BlockPos, BlockState> entry : blocks.entrySet()) {
-            BlockPos pos = entry.getKey();
-            BlockPos normalizedPos = new BlockPos(
-                    pos.getX() - offset.getX(),
-                    pos.getY() - offset.getY(),
-                    pos.getZ() - offset.getZ()
-            );
-            normalized.put(normalizedPos, entry.getValue());
+    private static void showResults(String schematicName, String directory, List<SimilarityResult> results,
+                                    String note, FabricClientCommandSource source) {
+        // Sort results by similarity
+        results.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        SimilarityResult highestResult = !results.isEmpty() && results.get(0).similarity > 0.0 ? results.get(0) : null;
+
+        // Display results
+        ScanExecutor.sendFeedback(source, "§a=== Similarity Analysis Complete ===");
+        if (note != null) {
+            ScanExecutor.sendFeedback(source, note);
         }
 
-        return normalized;
+        if (highestResult != null) {
+            ScanExecutor.sendFeedback(source, "");
+            ScanExecutor.sendFeedback(source, "§6Highest Similarity Found:");
+            ScanExecutor.sendFeedback(source, String.format("§f%s", highestResult.schematicPath));
+            ScanExecutor.sendFeedback(source, String.format("§aSimilarity: §f%.2f%%", highestResult.similarity * 100));
+            ScanExecutor.sendFeedback(source, String.format("§7Matching blocks: §f%d/%d",
+                    highestResult.matchingBlocks, highestResult.totalBlocks));
+            if (highestResult.alignment != null) {
+                ScanExecutor.sendFeedback(source, "§7Alignment: §f" + highestResult.alignment);
+            }
+
+            // Show top 5 results if there are more
+            if (results.size() > 1) {
+                ScanExecutor.sendFeedback(source, "");
+                String filterText = filterBlock != null ?
+                        " (based on " + filterBlock.getBlock().getName().getString() + " positions)" : "";
+                ScanExecutor.sendFeedback(source, "§7Top 5 Similar Schematics" + filterText + ":");
+
+                int count = 0;
+                for (SimilarityResult result : results) {
+                    if (count >= 5) break;
+                    ScanExecutor.sendFeedback(source, String.format("§7%d. §f%.1f%% §8- §7%s",
+                            count + 1,
+                            result.similarity * 100,
+                            result.schematicPath));
+                    count++;
+                }
+            }
+
+            // Generate detailed report
+            generateReport(schematicName, directory, results, source);
+
+        } else {
+            ScanExecutor.sendFeedback(source, "§cNo similar schematics found");
+        }
     }
 
     /**
@@ -713,6 +1017,9 @@ public class SchematicSimilarityCommand {
                             blockText,
                             result.matchingBlocks,
                             result.totalBlocks));
+                    if (result.alignment != null) {
+                        writer.println("   Alignment: " + result.alignment);
+                    }
                     writer.println();
                 }
 
@@ -737,11 +1044,11 @@ public class SchematicSimilarityCommand {
                 }
             }
 
-            source.sendFeedback(Text.literal("§aReport saved to: §f" + reportFile.getName()));
+            ScanExecutor.sendFeedback(source, "§aReport saved to: §f" + reportFile.getName());
 
         } catch (Exception e) {
             LOGGER.error("Failed to generate report", e);
-            source.sendFeedback(Text.literal("§cFailed to generate report: " + e.getMessage()));
+            ScanExecutor.sendFeedback(source, "§cFailed to generate report: " + e.getMessage());
         }
     }
 
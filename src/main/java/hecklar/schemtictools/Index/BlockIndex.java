@@ -0,0 +1,336 @@
+package hecklar.schemtictools.Index;
+
+import fi.dy.masa.litematica.schematic.LitematicaSchematic;
+import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainer;
+import hecklar.schemtictools.Scan.MaterialTally;
+import hecklar.schemtictools.Scan.PackedRegion;
+import hecklar.schemtictools.Scan.ScanExecutor;
+import hecklar.schemtictools.Scan.ScanJob;
+import net.minecraft.block.BlockState;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Persistent inverted index from block id to the schematics containing it and how many of it they hold.
+ * One index covers the whole schematics base directory and is stored next to the schematics.
+ * Refreshing only reloads files that are new or whose size/modification time changed, so after the
+ * first build a query costs a directory listing plus a lookup.
+ *
+ * On disk the file table is followed by one postings list per block: (file index, count) pairs.
+ */
+public class BlockIndex {
+    private static final Logger LOGGER = LogManager.getLogger("BlockIndex");
+    private static final String FILE_NAME = ".schematic-tools-blocks.index";
+    private static final int MAGIC = 0x53544249; // "STBI"
+    private static final int FORMAT_VERSION = 1;
+
+    // Loaded once per base directory and kept for the session
+    private static final Map<File, BlockIndex> LOADED = new HashMap<>();
+
+    private final File file;
+    private final Map<String, FileEntry> files = new ConcurrentHashMap<>();
+    private volatile Map<String, List<Posting>> postings = null; // Rebuilt from the file entries after changes
+    private volatile boolean dirty = false;
+
+    /**
+     * Per-file block counts, the forward view used for incremental updates
+     */
+    private static class FileEntry {
+        final FileStamp stamp;
+        final String[] blockIds;
+        final int[] counts;
+
+        FileEntry(FileStamp stamp, String[] blockIds, int[] counts) {
+            this.stamp = stamp;
+            this.blockIds = blockIds;
+            this.counts = counts;
+        }
+    }
+
+    public static class Posting {
+        public final String path;
+        public final int count;
+
+        Posting(String path, int count) {
+            this.path = path;
+            this.count = count;
+        }
+    }
+
+    public static class RefreshResult {
+        public final int files;
+        public final int reindexed;
+        public final int removed;
+
+        RefreshResult(int files, int reindexed, int removed) {
+            this.files = files;
+            this.reindexed = reindexed;
+            this.removed = removed;
+        }
+    }
+
+    private BlockIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The index for a base directory, read from disk the first time it is needed
+     */
+    public static synchronized BlockIndex get(File baseDir) {
+        return LOADED.computeIfAbsent(baseDir.getAbsoluteFile(), BlockIndex::load);
+    }
+
+    private static BlockIndex load(File baseDir) {
+        BlockIndex index = new BlockIndex(new File(baseDir, FILE_NAME));
+
+        if (!index.file.isFile()) {
+            return index;
+        }
+
+        try {
+            CacheFiles.read(index.file, in -> {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                    LOGGER.info("Ignoring block index with an unknown format");
+                    return null;
+                }
+
+                int fileCount = in.readInt();
+                FileStamp[] stamps = new FileStamp[fileCount];
+                for (int i = 0; i < fileCount; i++) {
+                    stamps[i] = FileStamp.read(in);
+                }
+
+                // Collect the postings back into per-file lists
+                List<List<String>> fileBlocks = new ArrayList<>(fileCount);
+                List<List<Integer>> fileCounts = new ArrayList<>(fileCount);
+                for (int i = 0; i < fileCount; i++) {
+                    fileBlocks.add(new ArrayList<>());
+                    fileCounts.add(new ArrayList<>());
+                }
+
+                int blockCount = in.readInt();
+                for (int i = 0; i < blockCount; i++) {
+                    String blockId = in.readUTF();
+                    int postingCount = in.readInt();
+                    for (int j = 0; j < postingCount; j++) {
+                        int fileIndex = in.readInt();
+                        int count = in.readInt();
+                        fileBlocks.get(fileIndex).add(blockId);
+                        fileCounts.get(fileIndex).add(count);
+                    }
+                }
+
+                for (int i = 0; i < fileCount; i++) {
+                    List<String> blocks = fileBlocks.get(i);
+                    List<Integer> counts = fileCounts.get(i);
+                    int[] countArray = new int[counts.size()];
+                    for (int j = 0; j < countArray.length; j++) {
+                        countArray[j] = counts.get(j);
+                    }
+                    index.files.put(stamps[i].path, new FileEntry(stamps[i], blocks.toArray(new String[0]), countArray));
+                }
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to read block index, rebuilding it", e);
+            index.files.clear();
+        }
+
+        return index;
+    }
+
+    /**
+     * Bring the entries under a directory up to date: new and changed files are counted on the scan pool,
+     * entries for deleted files are dropped. Files counted before a cancellation are kept.
+     */
+    public synchronized RefreshResult refresh(File baseDir, File directory, ScanJob job) throws Exception {
+        List<File> schematicFiles = ScanExecutor.findAllSchematics(directory);
+        List<File> stale = new ArrayList<>();
+        Set<String> seenPaths = new HashSet<>();
+
+        for (File schematicFile : schematicFiles) {
+            FileStamp stamp = FileStamp.of(baseDir, schematicFile);
+            seenPaths.add(stamp.path);
+
+            FileEntry entry = files.get(stamp.path);
+            if (entry == null || !entry.stamp.matches(stamp)) {
+                stale.add(schematicFile);
+            }
+        }
+
+        String prefix = FileStamp.directoryPrefix(baseDir, directory);
+        int removed = 0;
+        for (FileEntry entry : new ArrayList<>(files.values())) {
+            if (entry.stamp.isUnder(prefix) && !seenPaths.contains(entry.stamp.path)) {
+                files.remove(entry.stamp.path);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            markChanged();
+        }
+
+        if (!stale.isEmpty()) {
+            ScanExecutor.scan(job, stale, MaterialTally::new, (tally, schematicFile) -> indexFile(baseDir, schematicFile, tally, job));
+        }
+
+        return new RefreshResult(schematicFiles.size(), stale.size(), removed);
+    }
+
+    private void indexFile(File baseDir, File schematicFile, MaterialTally tally, ScanJob job) {
+        FileStamp stamp = FileStamp.of(baseDir, schematicFile);
+        tally.clear();
+
+        try {
+            LitematicaSchematic schematic = LitematicaSchematic.createFromFile(
+                    schematicFile.getParentFile().toPath().toFile(),
+                    schematicFile.getName()
+            );
+
+            if (schematic != null) {
+                for (String regionName : schematic.getAreas().keySet()) {
+                    job.checkCancelled();
+                    LitematicaBlockStateContainer container = schematic.getSubRegionContainer(regionName);
+                    if (container == null) continue;
+
+                    PackedRegion region = PackedRegion.of(container);
+                    int[] histogram = region.histogram();
+                    BlockState[] palette = region.getPalette();
+
+                    for (int i = 0; i < histogram.length; i++) {
+                        if (histogram[i] > 0 && !palette[i].isAir()) {
+                            tally.add(MaterialTally.getRawId(palette[i].getBlock()), histogram[i]);
+                        }
+                    }
+                }
+            } else {
+                LOGGER.warn("Failed to load schematic for the block index: " + schematicFile.getName());
+            }
+        } catch (CancellationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // Still record the file so a broken schematic isn't retried until it changes
+            LOGGER.error("Error indexing schematic: " + schematicFile.getName(), e);
+            tally.clear();
+        }
+
+        String[] blockIds = new String[tally.getDistinctCount()];
+        int[] counts = new int[blockIds.length];
+        int[] next = {0};
+        tally.forEach((rawId, count) -> {
+            blockIds[next[0]] = MaterialTally.getBlockName(rawId);
+            counts[next[0]] = (int) Math.min(Integer.MAX_VALUE, count);
+            next[0]++;
+        });
+
+        files.put(stamp.path, new FileEntry(stamp, blockIds, counts));
+        markChanged();
+    }
+
+    // Called from scan workers while refresh() holds the lock, so this must not synchronize
+    private void markChanged() {
+        dirty = true;
+        postings = null;
+    }
+
+    /**
+     * Schematics under the directory prefix that contain the block, in no particular order
+     */
+    public synchronized List<Posting> postings(String blockId, String directoryPrefix) {
+        List<Posting> all = invertedView().getOrDefault(blockId, Collections.emptyList());
+        if (directoryPrefix.isEmpty()) {
+            return all;
+        }
+
+        List<Posting> matching = new ArrayList<>();
+        for (Posting posting : all) {
+            if (posting.path.startsWith(directoryPrefix)) {
+                matching.add(posting);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Each schematic under the directory prefix with its total count of the blocks, read straight from the
+     * per-file entries so nothing per file is collected on the way
+     */
+    public synchronized void sumCounts(Set<String> blockIds, String directoryPrefix, ObjLongConsumer<String> consumer) {
+        for (FileEntry entry : files.values()) {
+            if (!entry.stamp.isUnder(directoryPrefix)) continue;
+
+            long sum = 0;
+            for (int i = 0; i < entry.blockIds.length; i++) {
+                if (blockIds.contains(entry.blockIds[i])) {
+                    sum += entry.counts[i];
+                }
+            }
+            if (sum > 0) {
+                consumer.accept(entry.stamp.path, sum);
+            }
+        }
+    }
+
+    private Map<String, List<Posting>> invertedView() {
+        if (postings == null) {
+            Map<String, List<Posting>> inverted = new HashMap<>();
+            for (FileEntry entry : files.values()) {
+                for (int i = 0; i < entry.blockIds.length; i++) {
+                    inverted.computeIfAbsent(entry.blockIds[i], id -> new ArrayList<>())
+                            .add(new Posting(entry.stamp.path, entry.counts[i]));
+                }
+            }
+            postings = inverted;
+        }
+        return postings;
+    }
+
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+
+        // Number the files so every posting only stores an int
+        List<FileEntry> entries = new ArrayList<>(files.values());
+        Map<String, Integer> fileIndex = new HashMap<>(entries.size() * 2);
+        for (int i = 0; i < entries.size(); i++) {
+            fileIndex.put(entries.get(i).stamp.path, i);
+        }
+        Map<String, List<Posting>> inverted = invertedView();
+
+        CacheFiles.writeAtomically(file, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            out.writeInt(entries.size());
+            for (FileEntry entry : entries) {
+                entry.stamp.write(out);
+            }
+
+            out.writeInt(inverted.size());
+            for (Map.Entry<String, List<Posting>> block : inverted.entrySet()) {
+                out.writeUTF(block.getKey());
+                out.writeInt(block.getValue().size());
+                for (Posting posting : block.getValue()) {
+                    out.writeInt(fileIndex.get(posting.path));
+                    out.writeInt(posting.count);
+                }
+            }
+        });
+
+        dirty = false;
+    }
+}
@@ -0,0 +1,74 @@
+package hecklar.schemtictools.Index;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.block.Block;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helpers for the cache files kept in the schematics base directory
+ */
+public class CacheFiles {
+    private CacheFiles() {
+    }
+
+    public interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    public interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Write a gzip compressed cache file through a temporary file, so a crash mid-write never leaves a torn cache
+     */
+    public static void writeAtomically(File target, Writer writer) throws IOException {
+        Path targetPath = target.toPath();
+        Path tempPath = targetPath.resolveSibling(target.getName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(tempPath), 1 << 16)))) {
+            writer.write(out);
+        }
+
+        try {
+            Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Raw block state ids shift between game versions and when mods add blocks, so caches holding them
+     * are only valid with the game version and state count they were written under
+     */
+    public static String stateIdKey() {
+        return SharedConstants.getGameVersion().getName() + "/" + Block.STATE_IDS.size();
+    }
+
+    public static void writeStateIdKey(DataOutputStream out) throws IOException {
+        out.writeUTF(stateIdKey());
+    }
+
+    public static boolean readStateIdKey(DataInputStream in) throws IOException {
+        return stateIdKey().equals(in.readUTF());
+    }
+
+    public static <T> T read(File source, Reader<T> reader) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(source.toPath()), 1 << 16)))) {
+            return reader.read(in);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package hecklar.schemtictools.Index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Identifies one version of a schematic file: path relative to the schematics base directory,
+ * size and last-modified time. A cached entry is only reused while all three still match.
+ */
+public class FileStamp {
+    public final String path;
+    public final long size;
+    public final long lastModified;
+
+    public FileStamp(String path, long size, long lastModified) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public static FileStamp of(File baseDir, File file) {
+        return new FileStamp(relativePath(baseDir, file), file.length(), file.lastModified());
+    }
+
+    public boolean matches(FileStamp other) {
+        return other != null && this.path.equals(other.path)
+                && this.size == other.size && this.lastModified == other.lastModified;
+    }
+
+    /**
+     * Whether this file lives under the given directory (relative to the base directory, '/' separated)
+     */
+    public boolean isUnder(String directoryPrefix) {
+        return directoryPrefix.isEmpty() || path.startsWith(directoryPrefix);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(size);
+        out.writeLong(lastModified);
+    }
+
+    public static FileStamp read(DataInput in) throws IOException {
+        return new FileStamp(in.readUTF(), in.readLong(), in.readLong());
+    }
+
+    /**
+     * Get relative path from base directory, always using '/' so caches survive moving between systems
+     */
+    public static String relativePath(File baseDir, File file) {
+        String basePath = baseDir.getAbsolutePath();
+        String filePath = file.getAbsolutePath();
+
+        if (filePath.startsWith(basePath)) {
+            String relative = filePath.substring(basePath.length());
+            if (relative.startsWith(File.separator)) {
+                relative = relative.substring(1);
+            }
+            return relative.replace(File.separatorChar, '/');
+        }
+
+        return file.getName();
+    }
+
+    /**
+     * Prefix that every file under the directory starts with, or "" for the base directory itself
+     */
+    public static String directoryPrefix(File baseDir, File directory) {
+        String relative = relativePath(baseDir, directory);
+        if (relative.isEmpty() || directory.getAbsoluteFile().equals(baseDir.getAbsoluteFile())) {
+            return "";
+        }
+        return relative.endsWith("/") ? relative : relative + "/";
+    }
+}
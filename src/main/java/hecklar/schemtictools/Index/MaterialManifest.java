@@ -0,0 +1,134 @@
+package hecklar.schemtictools.Index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of the per-block material counts of every scanned schematic.
+ * Entries are keyed by path relative to the schematics base directory and are only
+ * reused while the file size and last-modified time are unchanged.
+ */
+public class MaterialManifest {
+    private static final Logger LOGGER = LogManager.getLogger("MaterialManifest");
+    private static final String FILE_NAME = ".schematic-tools-materials.cache";
+    private static final int MAGIC = 0x53544D4D; // "STMM"
+    private static final int FORMAT_VERSION = 1;
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    public static class Entry {
+        public final FileStamp stamp;
+        public final String[] blockIds;
+        public final int[] counts;
+
+        public Entry(FileStamp stamp, String[] blockIds, int[] counts) {
+            this.stamp = stamp;
+            this.blockIds = blockIds;
+            this.counts = counts;
+        }
+    }
+
+    private MaterialManifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the manifest from the schematics base directory, starting empty if it is missing or unreadable
+     */
+    public static MaterialManifest load(File baseDir) {
+        MaterialManifest manifest = new MaterialManifest(new File(baseDir, FILE_NAME));
+
+        if (!manifest.file.isFile()) {
+            return manifest;
+        }
+
+        try {
+            CacheFiles.read(manifest.file, in -> {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                    LOGGER.info("Ignoring materials manifest with an unknown format");
+                    return null;
+                }
+
+                int entryCount = in.readInt();
+                for (int i = 0; i < entryCount; i++) {
+                    FileStamp stamp = FileStamp.read(in);
+                    int blockCount = in.readInt();
+                    String[] blockIds = new String[blockCount];
+                    int[] counts = new int[blockCount];
+
+                    for (int j = 0; j < blockCount; j++) {
+                        blockIds[j] = in.readUTF();
+                        counts[j] = in.readInt();
+                    }
+
+                    manifest.entries.put(stamp.path, new Entry(stamp, blockIds, counts));
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read materials manifest, starting from scratch", e);
+            manifest.entries.clear();
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Cached counts for this exact file version, or null when the file is new or has changed
+     */
+    public Entry get(FileStamp stamp) {
+        Entry entry = entries.get(stamp.path);
+        return entry != null && entry.stamp.matches(stamp) ? entry : null;
+    }
+
+    public void put(FileStamp stamp, String[] blockIds, int[] counts) {
+        entries.put(stamp.path, new Entry(stamp, blockIds, counts));
+        dirty = true;
+    }
+
+    /**
+     * Drop entries under a scanned directory whose files no longer exist
+     */
+    public void prune(String directoryPrefix, Set<String> seenPaths) {
+        Collection<Entry> values = entries.values();
+        if (values.removeIf(entry -> entry.stamp.isUnder(directoryPrefix) && !seenPaths.contains(entry.stamp.path))) {
+            dirty = true;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+
+        CacheFiles.writeAtomically(file, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+
+            for (Entry entry : entries.values()) {
+                entry.stamp.write(out);
+                out.writeInt(entry.blockIds.length);
+                for (int i = 0; i < entry.blockIds.length; i++) {
+                    out.writeUTF(entry.blockIds[i]);
+                    out.writeInt(entry.counts[i]);
+                }
+            }
+        });
+
+        dirty = false;
+    }
+}
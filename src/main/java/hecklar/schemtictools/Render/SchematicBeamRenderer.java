@@ -1,6 +1,11 @@
 package hecklar.schemtictools.Render;
 
+import it.unimi.dsi.fastutil.objects.Object2FloatOpenHashMap;
+import net.minecraft.client.gl.ShaderProgram;
+import net.minecraft.client.gl.ShaderProgramKeys;
+import net.minecraft.client.gl.VertexBuffer;
 import net.minecraft.client.render.*;
+import net.minecraft.client.util.BufferAllocator;
 import net.minecraft.client.util.math.MatrixStack;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
@@ -9,33 +14,112 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.block.BlockState;
 import com.mojang.blaze3d.systems.RenderSystem;
 import org.joml.Matrix4f;
+import org.lwjgl.opengl.GL11;
 import java.util.*;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 
 @Environment(EnvType.CLIENT)
 public class SchematicBeamRenderer {
-    private static final Set<BlockPos> incompleteBlocks = Collections.synchronizedSet(new HashSet<>());
+    // Beams are grouped into cells of this many columns a side, each drawn from its own cached buffers
+    private static final int MESH_CELL_SIZE = 64;
+    private static final Map<Long, BeamMesh> meshes = new HashMap<>();
+    private static final List<BeamMesh> retiredMeshes = new ArrayList<>(); // Closed on the next frame
+    private static final BufferAllocator allocator = new BufferAllocator(1 << 16);
     private static boolean renderingEnabled = false;
     private static final float BEAM_HEIGHT = 50.0f;
     private static final float BEAM_WIDTH = 0.2f;
     private static final float BEAM_ALPHA = 0.4f;
 
-    // --- Management methods (unchanged) ---
+    /**
+     * The incomplete blocks of one cell and their geometry, relative to the cell's corner so the
+     * floats stay precise far from the world origin. Rebuilt only after a block is added or removed
+     * or a beam's height changes.
+     */
+    private static class BeamMesh {
+        final int originX;
+        final int originZ;
+        // Beam height per incomplete block, read from the world once and then only when its column changes
+        final Object2FloatOpenHashMap<BlockPos> beamHeights = new Object2FloatOpenHashMap<>();
+        boolean dirty = true;
+        VertexBuffer faces;   // Null while the cell has nothing to draw
+        VertexBuffer borders;
+
+        BeamMesh(int originX, int originZ) {
+            this.originX = originX;
+            this.originZ = originZ;
+        }
+
+        void close() {
+            if (faces != null) {
+                faces.close();
+                faces = null;
+            }
+            if (borders != null) {
+                borders.close();
+                borders = null;
+            }
+        }
+    }
+
+    private static long getCellKey(BlockPos pos) {
+        int cellX = Math.floorDiv(pos.getX(), MESH_CELL_SIZE);
+        int cellZ = Math.floorDiv(pos.getZ(), MESH_CELL_SIZE);
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
     public static void addIncompleteBlock(BlockPos pos) {
-        synchronized(incompleteBlocks) {
-            incompleteBlocks.add(pos.toImmutable());
+        synchronized(meshes) {
+            BeamMesh mesh = meshes.computeIfAbsent(getCellKey(pos), key -> new BeamMesh(
+                    Math.floorDiv(pos.getX(), MESH_CELL_SIZE) * MESH_CELL_SIZE,
+                    Math.floorDiv(pos.getZ(), MESH_CELL_SIZE) * MESH_CELL_SIZE));
+            if (!mesh.beamHeights.containsKey(pos)) {
+                mesh.beamHeights.put(pos.toImmutable(), calculateActualBeamHeight(pos));
+                mesh.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Read an incomplete block's beam height again after its column changed; its cell is only
+     * rebuilt when the height actually moved
+     */
+    public static void updateBeamHeight(BlockPos pos) {
+        synchronized(meshes) {
+            BeamMesh mesh = meshes.get(getCellKey(pos));
+            if (mesh == null || !mesh.beamHeights.containsKey(pos)) {
+                return;
+            }
+
+            float beamHeight = calculateActualBeamHeight(pos);
+            if (mesh.beamHeights.put(pos.toImmutable(), beamHeight) != beamHeight) {
+                mesh.dirty = true;
+            }
         }
     }
 
     public static void removeBlock(BlockPos pos) {
-        synchronized(incompleteBlocks) {
-            incompleteBlocks.remove(pos);
+        synchronized(meshes) {
+            long key = getCellKey(pos);
+            BeamMesh mesh = meshes.get(key);
+            if (mesh != null && mesh.beamHeights.containsKey(pos)) {
+                mesh.beamHeights.removeFloat(pos);
+                mesh.dirty = true;
+                if (mesh.beamHeights.isEmpty()) {
+                    meshes.remove(key);
+                    retiredMeshes.add(mesh);
+                }
+            }
         }
     }
+
+    /**
+     * Also called from commands; the GPU buffers are released on the render thread
+     */
     public static void clearBlocks() {
-        synchronized(incompleteBlocks) {
-            incompleteBlocks.clear();
+        synchronized(meshes) {
+            retiredMeshes.addAll(meshes.values());
+            meshes.clear();
         }
     }
 
@@ -54,58 +138,151 @@ public class SchematicBeamRenderer {
         return dx * dx + dy * dy + dz * dz;
     }
 
+    private static double getDistanceToCamera(BeamMesh mesh, Vec3d cameraPos) {
+        double dx = (mesh.originX + MESH_CELL_SIZE / 2.0) - cameraPos.x;
+        double dz = (mesh.originZ + MESH_CELL_SIZE / 2.0) - cameraPos.z;
+        return dx * dx + dz * dz;
+    }
+
     /**
-     * Renders the beams for incomplete blocks.
-     * IMPROVED SOLUTION: Using proper translucent rendering with better alpha blending
+     * Renders the beams for incomplete blocks from the cached cell buffers. Only cells whose blocks
+     * changed are rebuilt, so a frame without changes just sorts the cells and issues their draws.
      */
-    public static void render(MatrixStack matrices, Camera camera, VertexConsumerProvider vertexConsumers) {
-        if (!renderingEnabled || incompleteBlocks.isEmpty() || MinecraftClient.getInstance().world == null) {
-            return;
-        }
-
+    public static void render(MatrixStack matrices, Camera camera) {
+        List<BeamMesh> visibleMeshes = new ArrayList<>();
         Vec3d cameraPos = camera.getPos();
-        List<BlockPos> sortedBlocks;
-        synchronized(incompleteBlocks) {
-            sortedBlocks = new ArrayList<>(incompleteBlocks);
+
+        synchronized(meshes) {
+            for (BeamMesh mesh : retiredMeshes) {
+                mesh.close();
+            }
+            retiredMeshes.clear();
+
+            if (!renderingEnabled || meshes.isEmpty() || MinecraftClient.getInstance().world == null) {
+                return;
+            }
+
+            for (BeamMesh mesh : meshes.values()) {
+                if (mesh.dirty) {
+                    rebuildMesh(mesh, cameraPos);
+                }
+                if (mesh.faces != null) {
+                    visibleMeshes.add(mesh);
+                }
+            }
         }
 
-        // Sort blocks from farthest to nearest for correct transparency rendering
-        sortedBlocks.sort(Comparator.comparingDouble(pos -> getDistanceToCamera((BlockPos) pos, cameraPos)).reversed());
+        if (visibleMeshes.isEmpty()) {
+            return;
+        }
 
-        // Push matrix state
-        matrices.push();
+        // Draw cells from farthest to nearest for correct transparency rendering
+        visibleMeshes.sort(Comparator.comparingDouble((BeamMesh mesh) -> getDistanceToCamera(mesh, cameraPos)).reversed());
 
         // Enable proper blending for transparency
         RenderSystem.enableBlend();
         RenderSystem.defaultBlendFunc();
         RenderSystem.disableCull(); // Disable backface culling for better transparency
-
-        Matrix4f positionMatrix = matrices.peek().getPositionMatrix();
-
-        // Render translucent faces using debug rendering
-        for (BlockPos pos : sortedBlocks) {
-            renderBeamFacesDebug(matrices, vertexConsumers, pos, cameraPos);
+        // Nothing guarantees the depth state at this stage, so set it like the translucent layers do:
+        // hidden behind terrain, but not writing depth so beams behind each other still show through
+        RenderSystem.enableDepthTest();
+        RenderSystem.depthFunc(GL11.GL_LEQUAL);
+        RenderSystem.depthMask(false);
+
+        Matrix4f viewMatrix = matrices.peek().getPositionMatrix();
+        Matrix4f projectionMatrix = RenderSystem.getProjectionMatrix();
+
+        ShaderProgram faceShader = RenderSystem.setShader(ShaderProgramKeys.POSITION_COLOR);
+        for (BeamMesh mesh : visibleMeshes) {
+            mesh.faces.bind();
+            mesh.faces.draw(cellMatrix(viewMatrix, mesh, cameraPos), projectionMatrix, faceShader);
         }
 
-        // Render borders using getLines()
-        VertexConsumer borderBuffer = vertexConsumers.getBuffer(RenderLayer.getLines());
-        for (BlockPos pos : sortedBlocks) {
-            renderBeamBorders(borderBuffer, positionMatrix, pos, cameraPos);
+        // Same width as RenderLayer.getLines()
+        RenderSystem.lineWidth(Math.max(2.5f, MinecraftClient.getInstance().getWindow().getFramebufferWidth() / 1920.0f * 2.5f));
+        ShaderProgram borderShader = RenderSystem.setShader(ShaderProgramKeys.RENDERTYPE_LINES);
+        for (BeamMesh mesh : visibleMeshes) {
+            if (mesh.borders != null) {
+                mesh.borders.bind();
+                mesh.borders.draw(cellMatrix(viewMatrix, mesh, cameraPos), projectionMatrix, borderShader);
+            }
         }
+        VertexBuffer.unbind();
 
         // Restore render state
+        RenderSystem.lineWidth(1.0f);
+        RenderSystem.depthMask(true);
+        RenderSystem.disableDepthTest();
         RenderSystem.enableCull();
         RenderSystem.disableBlend();
+    }
+
+    /**
+     * The camera's view moved to the cell's corner, computed in doubles before narrowing to floats
+     */
+    private static Matrix4f cellMatrix(Matrix4f viewMatrix, BeamMesh mesh, Vec3d cameraPos) {
+        return new Matrix4f(viewMatrix).translate(
+                (float) (mesh.originX - cameraPos.x),
+                (float) -cameraPos.y,
+                (float) (mesh.originZ - cameraPos.z));
+    }
+
+    /**
+     * Write the cell's beams into its buffers, sorted from the camera's position at build time.
+     * Heights come from the cache, so building never reads the world.
+     */
+    private static void rebuildMesh(BeamMesh mesh, Vec3d cameraPos) {
+        mesh.dirty = false;
 
-        matrices.pop();
+        List<BlockPos> sortedBlocks = new ArrayList<>(mesh.beamHeights.keySet());
+        sortedBlocks.sort(Comparator.comparingDouble((BlockPos pos) -> getDistanceToCamera(pos, cameraPos)).reversed());
+
+        Vec3d origin = new Vec3d(mesh.originX, 0, mesh.originZ);
+        Matrix4f identity = new Matrix4f();
+        float[] beamHeights = new float[sortedBlocks.size()];
+        for (int i = 0; i < sortedBlocks.size(); i++) {
+            beamHeights[i] = mesh.beamHeights.getFloat(sortedBlocks.get(i));
+        }
+
+        BufferBuilder faceBuffer = new BufferBuilder(allocator, VertexFormat.DrawMode.TRIANGLES, VertexFormats.POSITION_COLOR);
+        for (int i = 0; i < sortedBlocks.size(); i++) {
+            renderBeamFaces(faceBuffer, identity, sortedBlocks.get(i), origin, beamHeights[i]);
+        }
+        mesh.faces = upload(mesh.faces, faceBuffer.endNullable());
+
+        BufferBuilder borderBuffer = new BufferBuilder(allocator, VertexFormat.DrawMode.LINES, VertexFormats.LINES);
+        for (int i = 0; i < sortedBlocks.size(); i++) {
+            renderBeamBorders(borderBuffer, identity, sortedBlocks.get(i), origin, beamHeights[i]);
+        }
+        mesh.borders = upload(mesh.borders, borderBuffer.endNullable());
+    }
+
+    /**
+     * Upload built geometry into the buffer, creating it on first use and dropping it when there is nothing to draw
+     */
+    private static VertexBuffer upload(VertexBuffer buffer, BuiltBuffer built) {
+        if (built == null) {
+            if (buffer != null) {
+                buffer.close();
+            }
+            return null;
+        }
+
+        if (buffer == null) {
+            buffer = new VertexBuffer(VertexBuffer.Usage.STATIC);
+        }
+        buffer.bind();
+        buffer.upload(built);
+        VertexBuffer.unbind();
+        return buffer;
     }
-    // Use debug rendering methods which handle vertex format automatically
-    private static void renderBeamFacesDebug(MatrixStack matrices, VertexConsumerProvider vertexConsumers, BlockPos pos, Vec3d camera) {
-        float x = (float)(pos.getX() - camera.x + 0.5);
-        float y = (float)(pos.getY() - camera.y + 1.0);
-        float z = (float)(pos.getZ() - camera.z + 0.5);
 
-        float beamHeight = calculateActualBeamHeight(pos);
+    // Faces of one beam as POSITION_COLOR triangles, relative to the cell origin
+    private static void renderBeamFaces(VertexConsumer buffer, Matrix4f matrix, BlockPos pos, Vec3d origin, float beamHeight) {
+        float x = (float)(pos.getX() - origin.x + 0.5);
+        float y = (float)(pos.getY() - origin.y + 1.0);
+        float z = (float)(pos.getZ() - origin.z + 0.5);
+
         if (beamHeight <= 0) return;
 
         float minX = x - BEAM_WIDTH;
@@ -115,10 +292,6 @@ public class SchematicBeamRenderer {
         float minZ = z - BEAM_WIDTH;
         float maxZ = z + BEAM_WIDTH;
 
-        // Use debug filled box which works with position + color only
-        VertexConsumer buffer = vertexConsumers.getBuffer(RenderLayer.getDebugFilledBox());
-        Matrix4f matrix = matrices.peek().getPositionMatrix();
-
         // Draw each face as two triangles with correct vertex ordering
         
         // North face (-Z) - Two triangles
@@ -241,12 +414,11 @@ public class SchematicBeamRenderer {
             buffer.vertex(matrix, x4, y4, z4).color(r, g, b, alpha);
         }
     }
-    private static void renderBeamBorders(VertexConsumer buffer, Matrix4f matrix, BlockPos pos, Vec3d camera) {
-        float x = (float)(pos.getX() - camera.x + 0.5);
-        float y = (float)(pos.getY() - camera.y + 1.0);
-        float z = (float)(pos.getZ() - camera.z + 0.5);
+    private static void renderBeamBorders(VertexConsumer buffer, Matrix4f matrix, BlockPos pos, Vec3d origin, float beamHeight) {
+        float x = (float)(pos.getX() - origin.x + 0.5);
+        float y = (float)(pos.getY() - origin.y + 1.0);
+        float z = (float)(pos.getZ() - origin.z + 0.5);
 
-        float beamHeight = calculateActualBeamHeight(pos);
         if (beamHeight <= 0) return;
 
         float minX = x - BEAM_WIDTH;
@@ -294,6 +466,7 @@ public class SchematicBeamRenderer {
         buffer.vertex(matrix, maxX, maxY, minZ).color(0.0f, 0.0f, 0.0f, 0.0f).normal(0.0f, 1.0f, 0.0f);
         buffer.vertex(matrix, maxX, maxY, maxZ).color(0.0f, 0.0f, 0.0f, 0.0f).normal(0.0f, 1.0f, 0.0f);
     }
+    // Only called when a beam is added or its column changed; the result is cached in its cell
     private static float calculateActualBeamHeight(BlockPos pos) {
         MinecraftClient client = MinecraftClient.getInstance();
         if (client.world == null) return 0;
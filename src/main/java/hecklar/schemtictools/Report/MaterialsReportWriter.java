@@ -0,0 +1,282 @@
+package hecklar.schemtictools.Report;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams a materials report to disk while the scan is still running.
+ * Each schematic's section is appended as soon as that file is done, so only the running totals
+ * need to stay in memory. Alongside the text report the same pass writes a CSV and a JSON file.
+ *
+ * The text report lists totals first, so per-schematic sections are spooled into a temporary
+ * file and copied behind the totals with a channel transfer when the scan finishes.
+ */
+public class MaterialsReportWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File reportFile;
+    private final File csvFile;
+    private final File jsonFile;
+    private final Path sectionsPath;
+
+    private final Writer sections;
+    private final Writer csv;
+    private final Writer json;
+    private boolean firstJsonSchematic = true;
+    private boolean closed = false;
+
+    public static class Material {
+        public final String blockName;
+        public final long count;
+
+        public Material(String blockName, long count) {
+            this.blockName = blockName;
+            this.count = count;
+        }
+    }
+
+    private MaterialsReportWriter(File baseDir, String directory) throws IOException {
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss"));
+        this.reportFile = new File(baseDir, "materials_report_" + timestamp + ".txt");
+        this.csvFile = new File(baseDir, "materials_report_" + timestamp + ".csv");
+        this.jsonFile = new File(baseDir, "materials_report_" + timestamp + ".json");
+        this.sectionsPath = Files.createTempFile(baseDir.toPath(), ".materials_sections_", ".tmp");
+
+        this.sections = openChannelWriter(sectionsPath);
+        this.csv = openChannelWriter(csvFile.toPath());
+        this.json = openChannelWriter(jsonFile.toPath());
+
+        csv.write("schematic,block,count,stacks,remainder,shulker_boxes\n");
+
+        json.write("{\n");
+        json.write("  \"directory\": " + jsonString(directory) + ",\n");
+        json.write("  \"generated\": " + jsonString(LocalDateTime.now().toString()) + ",\n");
+        json.write("  \"schematics\": [");
+    }
+
+    public static MaterialsReportWriter open(File baseDir, String directory) throws IOException {
+        return new MaterialsReportWriter(baseDir, directory);
+    }
+
+    private static Writer openChannelWriter(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    public File getReportFile() {
+        return reportFile;
+    }
+
+    public File getCsvFile() {
+        return csvFile;
+    }
+
+    public File getJsonFile() {
+        return jsonFile;
+    }
+
+    /**
+     * Append one schematic to all three outputs. Called from scan workers as each file finishes.
+     * Materials are expected to be sorted by count, largest first.
+     */
+    public synchronized void writeSchematic(String name, long totalBlocks, List<Material> materials) throws IOException {
+        // Text section
+        double schematicTotalShulkers = 0.0;
+        for (Material material : materials) {
+            schematicTotalShulkers += material.count / (64.0 * 27);
+        }
+
+        sections.write("### " + name + " ###\n");
+        sections.write("Total blocks: " + totalBlocks + "\n");
+        sections.write(String.format("Total shulker boxes: %.2f%n", schematicTotalShulkers));
+        sections.write("Materials:\n");
+        for (Material material : materials) {
+            sections.write("  " + formatMaterial(material) + "\n");
+        }
+        sections.write("\n");
+
+        // CSV rows
+        for (Material material : materials) {
+            writeCsvRow(name, material);
+        }
+
+        // JSON entry
+        json.write(firstJsonSchematic ? "\n" : ",\n");
+        firstJsonSchematic = false;
+        json.write("    {\"name\": " + jsonString(name) + ", \"totalBlocks\": " + totalBlocks + ", \"materials\": ");
+        writeJsonMaterials(materials);
+        json.write("}");
+    }
+
+    /**
+     * Write the report header and totals, then append the spooled per-schematic sections
+     */
+    public synchronized void finish(String directory, int schematicsProcessed, long totalBlocks,
+                                    List<Material> totals) throws IOException {
+        sections.close();
+
+        for (Material material : totals) {
+            writeCsvRow("TOTAL", material);
+        }
+        csv.close();
+
+        json.write("\n  ],\n");
+        json.write("  \"schematicsProcessed\": " + schematicsProcessed + ",\n");
+        json.write("  \"totalBlocks\": " + totalBlocks + ",\n");
+        json.write("  \"totals\": ");
+        writeJsonMaterials(totals);
+        json.write("\n}\n");
+        json.close();
+
+        try (FileChannel reportChannel = FileChannel.open(reportFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer writer = new BufferedWriter(Channels.newWriter(reportChannel, StandardCharsets.UTF_8), BUFFER_SIZE);
+            writer.write("Materials List Analysis Report\n");
+            writer.write("Generated: " + LocalDateTime.now() + "\n");
+            writer.write("Directory: " + directory + "\n");
+            writer.write("Schematics Processed: " + schematicsProcessed + "\n");
+            writer.write("Total Blocks: " + totalBlocks + "\n");
+
+            // First section: Total materials across all schematics
+            writer.write("\n----- TOTAL MATERIALS REQUIRED -----\n\n");
+
+            double totalShulkers = 0.0;
+            for (Material material : totals) {
+                writer.write(formatMaterial(material) + "\n");
+                totalShulkers += material.count / (64.0 * 27);
+            }
+
+            // Add summary for all materials
+            writer.write("\nTotal Summary:\n");
+            writer.write("Total unique materials: " + totals.size() + "\n");
+            writer.write(String.format("Total shulker boxes required: %.2f%n", totalShulkers));
+
+            // Second section: Per-schematic materials, in the order the scan finished them
+            writer.write("\n\n----- MATERIALS REQUIRED BY EACH SCHEMATIC -----\n\n");
+            writer.flush();
+
+            try (FileChannel sectionsChannel = FileChannel.open(sectionsPath, StandardOpenOption.READ)) {
+                long position = 0;
+                long size = sectionsChannel.size();
+                while (position < size) {
+                    position += sectionsChannel.transferTo(position, size - position, reportChannel);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(sectionsPath);
+            closed = true;
+        }
+    }
+
+    /**
+     * Close everything and remove the partial outputs, used when the scan fails or finds nothing
+     */
+    public synchronized void abort() {
+        closeQuietly(sections);
+        closeQuietly(csv);
+        closeQuietly(json);
+
+        try {
+            Files.deleteIfExists(sectionsPath);
+            Files.deleteIfExists(csvFile.toPath());
+            Files.deleteIfExists(jsonFile.toPath());
+            Files.deleteIfExists(reportFile.toPath());
+        } catch (IOException ignored) {
+        }
+        closed = true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            abort();
+        }
+    }
+
+    private static String formatMaterial(Material material) {
+        long stacks = material.count / 64;
+        long remainder = material.count % 64;
+        double shulkers = material.count / (64.0 * 27); // 27 stacks per shulker
+
+        return String.format("%-40s: %,d blocks (%d stacks + %d, %.2f shulker boxes)",
+                material.blockName, material.count, stacks, remainder, shulkers);
+    }
+
+    private void writeCsvRow(String schematic, Material material) throws IOException {
+        csv.write(csvField(schematic));
+        csv.write(',');
+        csv.write(csvField(material.blockName));
+        csv.write(',');
+        csv.write(Long.toString(material.count));
+        csv.write(',');
+        csv.write(Long.toString(material.count / 64));
+        csv.write(',');
+        csv.write(Long.toString(material.count % 64));
+        csv.write(',');
+        csv.write(String.format(Locale.ROOT, "%.2f", material.count / (64.0 * 27)));
+        csv.write('\n');
+    }
+
+    private void writeJsonMaterials(List<Material> materials) throws IOException {
+        json.write("{");
+        boolean first = true;
+        for (Material material : materials) {
+            if (!first) json.write(", ");
+            first = false;
+            json.write(jsonString(material.blockName) + ": " + material.count);
+        }
+        json.write("}");
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        builder.append('"');
+        return builder.toString();
+    }
+
+    private static void closeQuietly(Writer writer) {
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package hecklar.schemtictools.Scan;
+
+import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.text.Text;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of running background scans so they can be listed and cancelled
+ */
+public class JobManager {
+    private static final Logger LOGGER = LogManager.getLogger("SchematicJobs");
+    private static final Map<Integer, ScanJob> JOBS = new ConcurrentSkipListMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+
+    public interface JobBody {
+        void run(ScanJob job) throws Exception;
+    }
+
+    private JobManager() {
+    }
+
+    /**
+     * Register a job and run it in the background. Cancellation and failures are reported to the source.
+     */
+    public static ScanJob start(String name, FabricClientCommandSource source, JobBody body) {
+        ScanJob job = new ScanJob(NEXT_ID.getAndIncrement(), name);
+        JOBS.put(job.getId(), job);
+
+        source.sendFeedback(Text.literal(
+                "§7Started job §f#" + job.getId() + "§7 (" + name + "), stop it with §f/tools jobs cancel " + job.getId()));
+
+        ScanExecutor.runInBackground(() -> {
+            try {
+                body.run(job);
+            } catch (CancellationException e) {
+                ScanExecutor.sendFeedback(source, "§eJob #" + job.getId() + " cancelled after " + job.describeElapsed());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof CancellationException) {
+                    ScanExecutor.sendFeedback(source, "§eJob #" + job.getId() + " cancelled after " + job.describeElapsed());
+                } else {
+                    LOGGER.error("Job #" + job.getId() + " failed", cause);
+                    ScanExecutor.sendFeedback(source, "§cJob #" + job.getId() + " failed: " + cause.getMessage());
+                }
+            } catch (Exception e) {
+                LOGGER.error("Job #" + job.getId() + " failed", e);
+                ScanExecutor.sendFeedback(source, "§cJob #" + job.getId() + " failed: " + e.getMessage());
+            } finally {
+                JOBS.remove(job.getId());
+                job.clearProgress();
+            }
+        });
+
+        return job;
+    }
+
+    public static List<ScanJob> list() {
+        return new ArrayList<>(JOBS.values());
+    }
+
+    public static boolean cancel(int id) {
+        ScanJob job = JOBS.get(id);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    public static int cancelAll() {
+        int count = 0;
+        for (ScanJob job : JOBS.values()) {
+            job.cancel();
+            count++;
+        }
+        return count;
+    }
+}
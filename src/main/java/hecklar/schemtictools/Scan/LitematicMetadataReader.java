@@ -0,0 +1,240 @@
+package hecklar.schemtictools.Scan;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming NBT reader for .litematic files that only keeps the Metadata compound and the region
+ * sizes and palettes. BlockStates long arrays (and everything else that isn't needed) are skipped
+ * without being allocated, and reading stops as soon as both Metadata and Regions have been seen.
+ */
+public class LitematicMetadataReader {
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+
+    private static final int MAX_DEPTH = 512;
+
+    private LitematicMetadataReader() {
+    }
+
+    public static SchematicMetadata read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file.toPath()), 1 << 16), 1 << 16))) {
+            if (in.readByte() != TAG_COMPOUND) {
+                throw new IOException("Not a litematic file: " + file.getName());
+            }
+            in.readUTF(); // Root name
+
+            SchematicMetadata metadata = new SchematicMetadata(file);
+            boolean haveMetadata = false;
+            boolean haveRegions = false;
+
+            int type;
+            while ((type = in.readByte()) != TAG_END) {
+                String key = in.readUTF();
+
+                if (type == TAG_COMPOUND && key.equals("Metadata")) {
+                    readMetadata(in, metadata);
+                    haveMetadata = true;
+                } else if (type == TAG_COMPOUND && key.equals("Regions")) {
+                    readRegions(in, metadata);
+                    haveRegions = true;
+                } else {
+                    skipPayload(in, type, 0);
+                }
+
+                // Nothing after this is needed, don't inflate the rest of the file
+                if (haveMetadata && haveRegions) {
+                    break;
+                }
+            }
+
+            return metadata;
+        }
+    }
+
+    private static void readMetadata(DataInputStream in, SchematicMetadata metadata) throws IOException {
+        int type;
+        while ((type = in.readByte()) != TAG_END) {
+            String key = in.readUTF();
+
+            switch (key) {
+                case "Name" -> metadata.name = readString(in, type);
+                case "Author" -> metadata.author = readString(in, type);
+                case "RegionCount" -> metadata.regionCount = (int) readNumber(in, type);
+                case "TotalVolume" -> metadata.totalVolume = readNumber(in, type);
+                case "TotalBlocks" -> metadata.totalBlocks = readNumber(in, type);
+                case "EnclosingSize" -> {
+                    int[] size = readVector(in, type);
+                    metadata.enclosingX = size[0];
+                    metadata.enclosingY = size[1];
+                    metadata.enclosingZ = size[2];
+                }
+                default -> skipPayload(in, type, 1);
+            }
+        }
+    }
+
+    private static void readRegions(DataInputStream in, SchematicMetadata metadata) throws IOException {
+        int type;
+        while ((type = in.readByte()) != TAG_END) {
+            String regionName = in.readUTF();
+
+            if (type != TAG_COMPOUND) {
+                skipPayload(in, type, 1);
+                continue;
+            }
+
+            SchematicMetadata.RegionInfo region = new SchematicMetadata.RegionInfo(regionName);
+            readRegion(in, region);
+            metadata.regions.add(region);
+        }
+    }
+
+    private static void readRegion(DataInputStream in, SchematicMetadata.RegionInfo region) throws IOException {
+        int type;
+        while ((type = in.readByte()) != TAG_END) {
+            String key = in.readUTF();
+
+            if (key.equals("Size")) {
+                int[] size = readVector(in, type);
+                region.sizeX = size[0];
+                region.sizeY = size[1];
+                region.sizeZ = size[2];
+            } else if (key.equals("BlockStatePalette") && type == TAG_LIST) {
+                readPalette(in, region);
+            } else {
+                // BlockStates, tile entities, entities and ticks are all skipped here
+                skipPayload(in, type, 2);
+            }
+        }
+    }
+
+    private static void readPalette(DataInputStream in, SchematicMetadata.RegionInfo region) throws IOException {
+        int elementType = in.readByte();
+        int length = in.readInt();
+
+        for (int i = 0; i < length; i++) {
+            if (elementType != TAG_COMPOUND) {
+                skipPayload(in, elementType, 3);
+                continue;
+            }
+
+            String blockName = "minecraft:air";
+            int type;
+            while ((type = in.readByte()) != TAG_END) {
+                String key = in.readUTF();
+                if (key.equals("Name") && type == TAG_STRING) {
+                    blockName = in.readUTF();
+                } else {
+                    skipPayload(in, type, 4);
+                }
+            }
+            region.palette.add(blockName);
+        }
+    }
+
+    /**
+     * Litematica stores positions as {x, y, z} compounds
+     */
+    private static int[] readVector(DataInputStream in, int type) throws IOException {
+        int[] vector = new int[3];
+
+        if (type != TAG_COMPOUND) {
+            skipPayload(in, type, 1);
+            return vector;
+        }
+
+        int entryType;
+        while ((entryType = in.readByte()) != TAG_END) {
+            String key = in.readUTF();
+            switch (key) {
+                case "x" -> vector[0] = (int) readNumber(in, entryType);
+                case "y" -> vector[1] = (int) readNumber(in, entryType);
+                case "z" -> vector[2] = (int) readNumber(in, entryType);
+                default -> skipPayload(in, entryType, 2);
+            }
+        }
+
+        return vector;
+    }
+
+    private static String readString(DataInputStream in, int type) throws IOException {
+        if (type == TAG_STRING) {
+            return in.readUTF();
+        }
+        skipPayload(in, type, 1);
+        return "";
+    }
+
+    private static long readNumber(DataInputStream in, int type) throws IOException {
+        return switch (type) {
+            case TAG_BYTE -> in.readByte();
+            case TAG_SHORT -> in.readShort();
+            case TAG_INT -> in.readInt();
+            case TAG_LONG -> in.readLong();
+            case TAG_FLOAT -> (long) in.readFloat();
+            case TAG_DOUBLE -> (long) in.readDouble();
+            default -> {
+                skipPayload(in, type, 1);
+                yield 0;
+            }
+        };
+    }
+
+    private static void skipPayload(DataInputStream in, int type, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("NBT nested too deeply");
+        }
+
+        switch (type) {
+            case TAG_END -> {
+            }
+            case TAG_BYTE -> in.skipNBytes(1);
+            case TAG_SHORT -> in.skipNBytes(2);
+            case TAG_INT, TAG_FLOAT -> in.skipNBytes(4);
+            case TAG_LONG, TAG_DOUBLE -> in.skipNBytes(8);
+            case TAG_BYTE_ARRAY -> in.skipNBytes(checkedLength(in.readInt()));
+            case TAG_STRING -> in.skipNBytes(in.readUnsignedShort());
+            case TAG_LIST -> {
+                int elementType = in.readByte();
+                int length = checkedLength(in.readInt());
+                for (int i = 0; i < length; i++) {
+                    skipPayload(in, elementType, depth + 1);
+                }
+            }
+            case TAG_COMPOUND -> {
+                int entryType;
+                while ((entryType = in.readByte()) != TAG_END) {
+                    in.skipNBytes(in.readUnsignedShort());
+                    skipPayload(in, entryType, depth + 1);
+                }
+            }
+            case TAG_INT_ARRAY -> in.skipNBytes(4L * checkedLength(in.readInt()));
+            case TAG_LONG_ARRAY -> in.skipNBytes(8L * checkedLength(in.readInt()));
+            default -> throw new IOException("Unknown NBT tag type " + type);
+        }
+    }
+
+    private static int checkedLength(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Negative NBT array length");
+        }
+        return length;
+    }
+}
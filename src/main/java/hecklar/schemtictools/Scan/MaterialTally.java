@@ -0,0 +1,94 @@
+package hecklar.schemtictools.Scan;
+
+import net.minecraft.block.Block;
+import net.minecraft.registry.Registries;
+
+import java.util.Arrays;
+
+/**
+ * Block counts in a flat long[] indexed by the block registry's raw id.
+ * Adding never allocates; ids that have been touched are remembered so iterating
+ * and clearing only cost as much as the number of distinct blocks.
+ */
+public class MaterialTally {
+    private long[] counts;
+    private int[] touched;
+    private int touchedCount = 0;
+    private long total = 0;
+
+    public interface Visitor {
+        void accept(int rawId, long count);
+    }
+
+    public MaterialTally() {
+        int registrySize = Math.max(16, Registries.BLOCK.size());
+        this.counts = new long[registrySize];
+        this.touched = new int[64];
+    }
+
+    public static int getRawId(Block block) {
+        return Registries.BLOCK.getRawId(block);
+    }
+
+    /**
+     * Registry id string for a raw id, only needed when a report is written
+     */
+    public static String getBlockName(int rawId) {
+        Block block = Registries.BLOCK.get(rawId);
+        return block != null ? Registries.BLOCK.getId(block).toString() : "unknown:" + rawId;
+    }
+
+    public void add(int rawId, long amount) {
+        if (amount <= 0) {
+            return;
+        }
+
+        if (rawId >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(rawId + 1, counts.length * 2));
+        }
+
+        if (counts[rawId] == 0) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touched.length * 2);
+            }
+            touched[touchedCount++] = rawId;
+        }
+
+        counts[rawId] += amount;
+        total += amount;
+    }
+
+    public void addAll(MaterialTally other) {
+        for (int i = 0; i < other.touchedCount; i++) {
+            int rawId = other.touched[i];
+            add(rawId, other.counts[rawId]);
+        }
+    }
+
+    public long get(int rawId) {
+        return rawId < counts.length ? counts[rawId] : 0;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int getDistinctCount() {
+        return touchedCount;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < touchedCount; i++) {
+            int rawId = touched[i];
+            visitor.accept(rawId, counts[rawId]);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < touchedCount; i++) {
+            counts[touched[i]] = 0;
+        }
+        touchedCount = 0;
+        total = 0;
+    }
+}
@@ -0,0 +1,242 @@
+package hecklar.schemtictools.Scan;
+
+import fi.dy.masa.litematica.schematic.container.ILitematicaBlockStatePalette;
+import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainer;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.Vec3i;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Read-only view over a sub-region container that decodes the packed palette indices directly,
+ * instead of resolving a BlockState through {@code container.get(x, y, z)} for every voxel.
+ * Entries are laid out like Litematica's bit array: index = y * sizeX * sizeZ + z * sizeX + x,
+ * packed back to back (entries may span two longs).
+ */
+public class PackedRegion {
+    private static final BlockState AIR = Blocks.AIR.getDefaultState();
+
+    private final LitematicaBlockStateContainer container;
+    private final BlockState[] palette;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int sizeLayer;
+    private final int volume;
+
+    // Null when the backing array doesn't look like we expect; lookups then go through the container
+    private final long[] data;
+    private final int bits;
+    private final long mask;
+    private Map<BlockState, Integer> stateToIndex;
+
+    private PackedRegion(LitematicaBlockStateContainer container) {
+        this.container = container;
+
+        Vec3i size = container.getSize();
+        this.sizeX = Math.abs(size.getX());
+        this.sizeY = Math.abs(size.getY());
+        this.sizeZ = Math.abs(size.getZ());
+        this.sizeLayer = this.sizeX * this.sizeZ;
+        this.volume = this.sizeLayer * this.sizeY;
+
+        // Resolve the palette once per region
+        ILitematicaBlockStatePalette containerPalette = container.getPalette();
+        int paletteSize = containerPalette.getPaletteSize();
+        this.palette = new BlockState[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            BlockState state = containerPalette.getBlockState(i);
+            this.palette[i] = state != null ? state : AIR;
+        }
+
+        long[] backing = container.getBackingLongArray();
+        int bitsPerEntry = guessBitsPerEntry(backing, this.volume, paletteSize);
+
+        if (backing != null && bitsPerEntry > 0 && bitsPerEntry < 32
+                && backing.length == (int) (((long) this.volume * bitsPerEntry + 63L) / 64L)) {
+            this.data = backing;
+            this.bits = bitsPerEntry;
+            this.mask = (1L << bitsPerEntry) - 1L;
+        } else {
+            this.data = null;
+            this.bits = 0;
+            this.mask = 0;
+        }
+    }
+
+    public static PackedRegion of(LitematicaBlockStateContainer container) {
+        return new PackedRegion(container);
+    }
+
+    /**
+     * The array is sized exactly to hold volume * bits, so the entry width can be read back from its length.
+     * Tiny regions round up too much for that, so fall back to Litematica's own sizing rule.
+     */
+    private static int guessBitsPerEntry(long[] backing, int volume, int paletteSize) {
+        if (backing == null || volume <= 0) {
+            return 0;
+        }
+
+        if (volume >= 64) {
+            return (int) (((long) backing.length * 64L) / volume);
+        }
+
+        return Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(1, paletteSize - 1)));
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+
+    public int getVolume() {
+        return volume;
+    }
+
+    public BlockState[] getPalette() {
+        return palette;
+    }
+
+    public int getPaletteSize() {
+        return palette.length;
+    }
+
+    /**
+     * Palette index at a position, indices outside the palette resolve to air in {@link #getState(int)}
+     */
+    public int indexAt(int x, int y, int z) {
+        int index = y * sizeLayer + z * sizeX + x;
+
+        if (data == null) {
+            return lookupIndex(container.get(x, y, z));
+        }
+
+        return decode(index);
+    }
+
+    public BlockState stateAt(int x, int y, int z) {
+        return getState(indexAt(x, y, z));
+    }
+
+    public BlockState getState(int paletteIndex) {
+        return paletteIndex >= 0 && paletteIndex < palette.length ? palette[paletteIndex] : AIR;
+    }
+
+    /**
+     * Palette indices whose state belongs to the block, or null when the block isn't in this region's palette.
+     * Only the palette is looked at, so regions without the block can be skipped before any voxel is decoded.
+     */
+    public boolean[] paletteMask(Block block) {
+        return paletteMask(Collections.singleton(block));
+    }
+
+    /**
+     * Same as {@link #paletteMask(Block)} for any of several blocks, e.g. everything in a block tag
+     */
+    public boolean[] paletteMask(Collection<Block> blocks) {
+        boolean[] mask = null;
+        for (int i = 0; i < palette.length; i++) {
+            if (blocks.contains(palette[i].getBlock())) {
+                if (mask == null) {
+                    mask = new boolean[palette.length];
+                }
+                mask[i] = true;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Number of voxels whose palette index is set in the mask
+     */
+    public int countMatching(boolean[] paletteMask) {
+        int[] counts = histogram();
+        int total = 0;
+        for (int i = 0; i < counts.length && i < paletteMask.length; i++) {
+            if (paletteMask[i]) {
+                total += counts[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Count how many voxels use each palette index, in one sequential pass over the packed array
+     */
+    public int[] histogram() {
+        int[] counts = new int[palette.length];
+
+        if (data == null) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int z = 0; z < sizeZ; z++) {
+                    for (int x = 0; x < sizeX; x++) {
+                        int paletteIndex = lookupIndex(container.get(x, y, z));
+                        if (paletteIndex >= 0) {
+                            counts[paletteIndex]++;
+                        }
+                    }
+                }
+            }
+            return counts;
+        }
+
+        long[] words = data;
+        int entryBits = bits;
+        long entryMask = mask;
+        long bitIndex = 0;
+
+        for (int i = 0; i < volume; i++, bitIndex += entryBits) {
+            int word = (int) (bitIndex >>> 6);
+            int offset = (int) (bitIndex & 63L);
+            long value = words[word] >>> offset;
+
+            if (offset + entryBits > 64) {
+                value |= words[word + 1] << (64 - offset);
+            }
+
+            int paletteIndex = (int) (value & entryMask);
+            if (paletteIndex < counts.length) {
+                counts[paletteIndex]++;
+            }
+        }
+
+        return counts;
+    }
+
+    private int decode(int index) {
+        long bitIndex = (long) index * bits;
+        int word = (int) (bitIndex >>> 6);
+        int offset = (int) (bitIndex & 63L);
+        long value = data[word] >>> offset;
+
+        if (offset + bits > 64) {
+            value |= data[word + 1] << (64 - offset);
+        }
+
+        return (int) (value & mask);
+    }
+
+    private int lookupIndex(BlockState state) {
+        if (stateToIndex == null) {
+            stateToIndex = new IdentityHashMap<>();
+            for (int i = palette.length - 1; i >= 0; i--) {
+                stateToIndex.put(palette[i], i);
+            }
+        }
+
+        Integer paletteIndex = stateToIndex.get(state != null ? state : AIR);
+        return paletteIndex != null ? paletteIndex : -1;
+    }
+}
@@ -0,0 +1,238 @@
+package hecklar.schemtictools.Scan;
+
+import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.text.Text;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs schematic scans off the client thread.
+ * Files are handed out to a bounded pool of workers, each of which keeps its own state
+ * so nothing has to be shared or locked while counting.
+ */
+public class ScanExecutor {
+    private static final Logger LOGGER = LogManager.getLogger("SchematicScan");
+
+    // Leave one core for the client/render thread
+    private static final int WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static final ExecutorService WORKERS =
+            Executors.newFixedThreadPool(WORKER_COUNT, daemonThreads("Schematic Scan Worker"));
+    private static final ExecutorService COORDINATORS =
+            Executors.newCachedThreadPool(daemonThreads("Schematic Scan"));
+    // Same size as the scan pool, for per-file work that produces one result each
+    private static final ForkJoinPool FORK_JOIN =
+            new ForkJoinPool(WORKER_COUNT, forkJoinThreads("Schematic Compare Worker"), null, false);
+
+    private ScanExecutor() {
+    }
+
+    public static int getWorkerCount() {
+        return WORKER_COUNT;
+    }
+
+    /**
+     * Run a whole command body in the background so the Brigadier callback returns immediately
+     */
+    public static void runInBackground(Runnable task) {
+        COORDINATORS.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOGGER.error("Background scan failed", e);
+            }
+        });
+    }
+
+    /**
+     * Process files on the worker pool. Every worker creates its own state through {@code workerState}
+     * and pulls files from a shared cursor until none are left; the per-worker states are returned
+     * for the caller to merge. Workers stop picking up files once the job is cancelled, and every
+     * finished file is reported to the job's progress line. When a file fails the others stop picking up
+     * files, and the failure is only thrown once every worker has finished, so the caller never cleans up
+     * state a worker is still using.
+     */
+    public static <S> List<S> scan(ScanJob job, List<File> files, Supplier<S> workerState, BiConsumer<S, File> perFile)
+            throws InterruptedException, ExecutionException {
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        job.setTotals(files.size(), totalBytes);
+
+        AtomicInteger cursor = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        int workers = Math.min(WORKER_COUNT, Math.max(1, files.size()));
+
+        List<Future<S>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(WORKERS.submit(() -> {
+                S state = workerState.get();
+                int index;
+                while (!job.isCancelled() && !failed.get() && (index = cursor.getAndIncrement()) < files.size()) {
+                    File file = files.get(index);
+                    try {
+                        perFile.accept(state, file);
+                    } catch (RuntimeException | Error e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                    job.fileDone(file.length());
+                }
+                return state;
+            }));
+        }
+
+        // Wait for every worker before reporting the first failure
+        List<S> states = new ArrayList<>(workers);
+        ExecutionException failure = null;
+        for (Future<S> future : futures) {
+            try {
+                states.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        job.checkCancelled();
+        return states;
+    }
+
+    /**
+     * Map every file to a result on the fork-join pool, in file order. The range of files is split
+     * in halves until the pieces are small, idle workers steal the other halves, and each half returns
+     * its own list, so results are merged on the way back up without any locking. Null results are dropped.
+     */
+    public static <R> List<R> forkJoin(ScanJob job, List<File> files, Function<File, R> perFile)
+            throws InterruptedException, ExecutionException {
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        job.setTotals(files.size(), totalBytes);
+
+        List<R> results = FORK_JOIN.submit(new FileTask<>(job, files, perFile, 0, files.size())).get();
+
+        job.checkCancelled();
+        return results;
+    }
+
+    private static class FileTask<R> extends RecursiveTask<List<R>> {
+        // Loading a schematic dwarfs the cost of a task, so split all the way down to a few files
+        private static final int LEAF_SIZE = 2;
+
+        private final ScanJob job;
+        private final List<File> files;
+        private final Function<File, R> perFile;
+        private final int start;
+        private final int end;
+
+        FileTask(ScanJob job, List<File> files, Function<File, R> perFile, int start, int end) {
+            this.job = job;
+            this.files = files;
+            this.perFile = perFile;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<R> compute() {
+            if (end - start <= LEAF_SIZE) {
+                List<R> results = new ArrayList<>(end - start);
+                for (int i = start; i < end && !job.isCancelled(); i++) {
+                    File file = files.get(i);
+                    R result = perFile.apply(file);
+                    if (result != null) {
+                        results.add(result);
+                    }
+                    job.fileDone(file.length());
+                }
+                return results;
+            }
+
+            int middle = (start + end) >>> 1;
+            FileTask<R> left = new FileTask<>(job, files, perFile, start, middle);
+            left.fork();
+            List<R> results = new FileTask<>(job, files, perFile, middle, end).compute();
+
+            List<R> merged = left.join();
+            merged.addAll(results);
+            return merged;
+        }
+    }
+
+    /**
+     * Send chat feedback from any thread; the message is delivered on the client thread
+     */
+    public static void sendFeedback(FabricClientCommandSource source, Text message) {
+        MinecraftClient.getInstance().execute(() -> source.sendFeedback(message));
+    }
+
+    public static void sendFeedback(FabricClientCommandSource source, String message) {
+        sendFeedback(source, Text.literal(message));
+    }
+
+    /**
+     * Find all schematic files in a directory recursively
+     */
+    public static List<File> findAllSchematics(File dir) {
+        List<File> schematics = new ArrayList<>();
+        findSchematicsRecursive(dir, schematics);
+        return schematics;
+    }
+
+    private static void findSchematicsRecursive(File dir, List<File> schematics) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findSchematicsRecursive(file, schematics);
+            } else if (file.getName().endsWith(".litematic")) {
+                schematics.add(file);
+            }
+        }
+    }
+
+    private static ForkJoinPool.ForkJoinWorkerThreadFactory forkJoinThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(name + " #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + " #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,123 @@
+package hecklar.schemtictools.Scan;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.text.Text;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long running scan started by a command. Workers report each finished file here, which drives a
+ * single action-bar progress line (updated at most a few times per second), and check
+ * {@link #checkCancelled()} between files and regions so {@code /tools jobs cancel} stops them cooperatively.
+ */
+public class ScanJob {
+    private static final long PROGRESS_INTERVAL_NANOS = 500_000_000L; // At most 2 progress updates per second
+
+    private final int id;
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean cancelled = false;
+
+    private volatile int filesTotal = 0;
+    private volatile long bytesTotal = 0;
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final AtomicLong lastProgressNanos = new AtomicLong();
+
+    ScanJob(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws once the job has been cancelled; call between files and between regions
+     */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Job #" + id + " cancelled");
+        }
+    }
+
+    public void setTotals(int files, long bytes) {
+        this.filesTotal = files;
+        this.bytesTotal = bytes;
+    }
+
+    /**
+     * Record one finished file and refresh the progress line if enough time has passed
+     */
+    public void fileDone(long bytes) {
+        filesDone.incrementAndGet();
+        bytesDone.addAndGet(bytes);
+
+        long now = System.nanoTime();
+        long last = lastProgressNanos.get();
+        if (now - last >= PROGRESS_INTERVAL_NANOS && lastProgressNanos.compareAndSet(last, now)) {
+            showProgress(describeProgress());
+        }
+    }
+
+    public String describeProgress() {
+        int done = filesDone.get();
+        long bytes = bytesDone.get();
+        double seconds = Math.max(0.001, (System.nanoTime() - startNanos) / 1_000_000_000.0);
+        double filesPerSecond = done / seconds;
+        double megabytesPerSecond = bytes / seconds / (1024.0 * 1024.0);
+
+        String eta = "?";
+        if (done > 0 && filesTotal > done) {
+            eta = formatDuration((long) ((filesTotal - done) / filesPerSecond));
+        } else if (filesTotal > 0 && done >= filesTotal) {
+            eta = "0s";
+        }
+
+        int percent = filesTotal > 0 ? (int) (100L * done / filesTotal) : 0;
+        return String.format("#%d %s: %d/%d files (%d%%), %.1f files/s, %.1f MB/s, ETA %s",
+                id, name, done, filesTotal, percent, filesPerSecond, megabytesPerSecond, eta);
+    }
+
+    public String describeElapsed() {
+        return formatDuration((System.nanoTime() - startNanos) / 1_000_000_000L);
+    }
+
+    void clearProgress() {
+        showProgress("");
+    }
+
+    private static void showProgress(String line) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        client.execute(() -> {
+            if (client.player != null) {
+                client.player.sendMessage(Text.literal(line.isEmpty() ? "" : "§7" + line), true);
+            }
+        });
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%dh %dm", seconds / 3600, (seconds % 3600) / 60);
+        }
+        if (seconds >= 60) {
+            return String.format("%dm %ds", seconds / 60, seconds % 60);
+        }
+        return seconds + "s";
+    }
+}
@@ -0,0 +1,50 @@
+package hecklar.schemtictools.Scan;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a litematic declares about itself in its Metadata compound plus each region's size and palette,
+ * read without decoding any block data
+ */
+public class SchematicMetadata {
+    public final File file;
+    public String name = "";
+    public String author = "";
+    public int regionCount = 0;
+    public long totalVolume = 0;
+    public long totalBlocks = 0;
+    public int enclosingX = 0;
+    public int enclosingY = 0;
+    public int enclosingZ = 0;
+    public final List<RegionInfo> regions = new ArrayList<>();
+
+    public static class RegionInfo {
+        public final String name;
+        public int sizeX = 0;
+        public int sizeY = 0;
+        public int sizeZ = 0;
+        public final List<String> palette = new ArrayList<>();
+
+        RegionInfo(String name) {
+            this.name = name;
+        }
+
+        public long getVolume() {
+            return (long) Math.abs(sizeX) * Math.abs(sizeY) * Math.abs(sizeZ);
+        }
+    }
+
+    SchematicMetadata(File file) {
+        this.file = file;
+    }
+
+    public int getPaletteSize() {
+        int size = 0;
+        for (RegionInfo region : regions) {
+            size += region.palette.size();
+        }
+        return size;
+    }
+}
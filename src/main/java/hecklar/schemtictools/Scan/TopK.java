@@ -0,0 +1,58 @@
+package hecklar.schemtictools.Scan;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the K largest items seen so far in a bounded min-heap, so ranking a whole library
+ * needs O(K) memory and O(log K) per item instead of collecting and sorting every result.
+ */
+public class TopK<T> {
+    private final int limit;
+    private final Comparator<T> order;
+    private final PriorityQueue<T> heap;
+
+    /**
+     * @param order ascending order; the smallest kept item sits at the head of the heap and is evicted first
+     */
+    public TopK(int limit, Comparator<T> order) {
+        this.limit = Math.max(1, limit);
+        this.order = order;
+        this.heap = new PriorityQueue<>(this.limit + 1, order);
+    }
+
+    public void offer(T item) {
+        if (heap.size() < limit) {
+            heap.add(item);
+        } else if (order.compare(item, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(item);
+        }
+    }
+
+    public int size() {
+        return heap.size();
+    }
+
+    public boolean isFull() {
+        return heap.size() >= limit;
+    }
+
+    /**
+     * The item a newcomer has to beat once the heap is full, or null while it is empty
+     */
+    public T peekSmallest() {
+        return heap.peek();
+    }
+
+    /**
+     * The kept items, largest first
+     */
+    public List<T> sortedDescending() {
+        List<T> items = new ArrayList<>(heap);
+        items.sort(order.reversed());
+        return items;
+    }
+}
@@ -26,6 +26,8 @@ public class SchematicTools implements ClientModInitializer {
 			SchematicBeamCommand.register(dispatcher);
 			SchematicSimilarityCommand.register(dispatcher);
 			FindMostBlockCommand.register(dispatcher);
+			JobsCommand.register(dispatcher);
+			DedupeCommand.register(dispatcher);
 		});
 	}
 	public static void sendMessage(String message) {
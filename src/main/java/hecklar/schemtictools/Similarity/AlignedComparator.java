@@ -0,0 +1,374 @@
+package hecklar.schemtictools.Similarity;
+
+import hecklar.schemtictools.Scan.ScanJob;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.BlockMirror;
+import net.minecraft.util.BlockRotation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares top layers independent of where they sit and which way they face.
+ * For each of the 8 rotations and mirrors of the reference, the number of matching top blocks at every
+ * XZ offset is the cross-correlation of per-state indicator planes, computed with FFTs in O(n² log n)
+ * instead of trying every offset. The best variant and offset is then checked cell by cell.
+ *
+ * Rotating or mirroring a plane permutes its spectrum, so the reference is only transformed once per
+ * plane size and the variants are read from it through the transposed transform. Memory is bounded for
+ * large planes: reference spectra are only cached within a budget, and the variants are accumulated in
+ * passes of as many as fit another budget, down to one variant at a time. Each pass transforms a reference
+ * state at most once, and candidate spectra are kept across passes while they fit a third budget.
+ * Heights are not part of the aligned match, only which block tops each column.
+ */
+public class AlignedComparator {
+    public static final int VARIANTS = 8;
+
+    // T(x, z) = (a*x + b*z, c*x + d*z): rotations clockwise seen from above, then the same after mirroring X
+    private static final int[][] TRANSFORMS = {
+            {1, 0, 0, 1}, {0, -1, 1, 0}, {-1, 0, 0, -1}, {0, 1, -1, 0},
+            {-1, 0, 0, 1}, {0, -1, -1, 0}, {1, 0, 0, -1}, {0, 1, 1, 0}
+    };
+    private static final BlockRotation[] ROTATIONS = {
+            BlockRotation.NONE, BlockRotation.CLOCKWISE_90, BlockRotation.CLOCKWISE_180, BlockRotation.COUNTERCLOCKWISE_90
+    };
+    private static final String[] VARIANT_NAMES = {
+            "as is", "rotated 90°", "rotated 180°", "rotated 270°",
+            "mirrored", "mirrored, rotated 90°", "mirrored, rotated 180°", "mirrored, rotated 270°"
+    };
+
+    private final TopLayerGrid reference;
+    private final int[] referenceIds;        // Distinct state ids of the reference
+    private final int[][] transformedIds;    // [variant][i]: referenceIds[i] rotated/mirrored with the variant
+    // Bytes of variant accumulators one comparison may hold; larger planes take more passes
+    private static final long ACCUMULATOR_BUDGET = 16L << 20;
+    // Bytes of reference spectra kept between comparisons; larger ones are transformed again when needed
+    private static final long SPECTRA_BUDGET = 64L << 20;
+    // Bytes of candidate spectra one comparison keeps between passes; the rest are transformed again
+    private static final long CANDIDATE_SPECTRA_BUDGET = 64L << 20;
+
+    private final int referenceExtent;
+    // Reference spectra per plane size: [i] real parts, [ids + i] imaginary parts
+    private final Map<Integer, double[][]> spectra = new HashMap<>();
+    private long spectraBytes = 0;
+
+    public static class Alignment {
+        public final int variant;
+        public final int offsetX;
+        public final int offsetZ;
+        public final int matching;
+        public final int union;
+
+        Alignment(int variant, int offsetX, int offsetZ, int matching, int union) {
+            this.variant = variant;
+            this.offsetX = offsetX;
+            this.offsetZ = offsetZ;
+            this.matching = matching;
+            this.union = union;
+        }
+
+        public double similarity() {
+            return union > 0 ? (double) matching / union : 0.0;
+        }
+
+        /**
+         * How the reference has to be turned and moved to line up with the other schematic
+         */
+        public String describe() {
+            return String.format("%s, offset %d, %d", VARIANT_NAMES[variant], offsetX, offsetZ);
+        }
+    }
+
+    public AlignedComparator(TopLayerGrid reference) {
+        this.reference = reference;
+        this.referenceIds = distinctIds(reference.getStates());
+        this.referenceExtent = Math.max(reference.getWidth(), reference.getDepth());
+
+        this.transformedIds = new int[VARIANTS][referenceIds.length];
+        for (int variant = 0; variant < VARIANTS; variant++) {
+            for (int i = 0; i < referenceIds.length; i++) {
+                transformedIds[variant][i] = transformState(referenceIds[i], variant);
+            }
+        }
+    }
+
+    /**
+     * Best alignment of the reference onto the candidate by number of matching top blocks
+     */
+    public Alignment compare(TopLayerGrid candidate, ScanJob job) {
+        if (reference.isEmpty() || candidate.isEmpty()) {
+            return new Alignment(0, 0, 0, 0, reference.getCount() + candidate.getCount());
+        }
+
+        int width = candidate.getWidth();
+        int depth = candidate.getDepth();
+        int[] states = candidate.getStates();
+
+        // Large enough that no offset wraps around onto another
+        int n = Fft2D.nextPowerOfTwo(referenceExtent + Math.max(width, depth) - 1);
+        int shift = Integer.numberOfTrailingZeros(n);
+        int mask = n - 1;
+        double[][] referenceSpectra = cachedSpectra(n); // Null when too large to keep
+
+        long planeBytes = (long) n * n * 16;
+        int variantsPerPass = (int) Math.max(1, Math.min(VARIANTS, ACCUMULATOR_BUDGET / planeBytes));
+        double[][] sumRe = new double[variantsPerPass][n * n];
+        double[][] sumIm = new double[variantsPerPass][n * n];
+        boolean[] used = new boolean[variantsPerPass];
+        double[] planeRe = new double[n * n];
+        double[] planeIm = new double[n * n];
+        double[] refPlaneRe = referenceSpectra == null ? new double[n * n] : null;
+        double[] refPlaneIm = referenceSpectra == null ? new double[n * n] : null;
+        int[] candidateIds = distinctIds(states);
+
+        // Candidate spectra by state id: [0] real parts, [1] imaginary parts
+        Map<Integer, double[][]> candidateSpectra = new HashMap<>();
+        long candidateBytes = 0;
+        int planeState = TopLayerGrid.EMPTY; // State whose spectrum is in planeRe/planeIm
+
+        int bestVariant = 0;
+        int bestOffset = 0;
+        long bestCount = 0;
+
+        for (int first = 0; first < VARIANTS; first += variantsPerPass) {
+            int last = Math.min(VARIANTS, first + variantsPerPass);
+            for (int slot = 0; slot < last - first; slot++) {
+                if (used[slot]) {
+                    Arrays.fill(sumRe[slot], 0.0);
+                    Arrays.fill(sumIm[slot], 0.0);
+                    used[slot] = false;
+                }
+            }
+
+            for (int i = 0; i < referenceIds.length; i++) {
+                if (!anyInPass(i, candidateIds, first, last)) continue;
+
+                if (job != null) {
+                    job.checkCancelled();
+                }
+
+                double[] refRe;
+                double[] refIm;
+                if (referenceSpectra != null) {
+                    refRe = referenceSpectra[i];
+                    refIm = referenceSpectra[referenceIds.length + i];
+                } else {
+                    indicatorPlane(reference.getStates(), reference.getWidth(), reference.getDepth(),
+                            referenceIds[i], n, refPlaneRe, refPlaneIm);
+                    Fft2D.forward(refPlaneRe, refPlaneIm, n);
+                    refRe = refPlaneRe;
+                    refIm = refPlaneIm;
+                }
+
+                for (int variant = first; variant < last; variant++) {
+                    int stateId = transformedIds[variant][i];
+                    if (Arrays.binarySearch(candidateIds, stateId) < 0) continue;
+
+                    // Most states look the same in every variant, so the same spectrum is usually reused
+                    double[] candRe;
+                    double[] candIm;
+                    double[][] cached = candidateSpectra.get(stateId);
+                    if (cached != null) {
+                        candRe = cached[0];
+                        candIm = cached[1];
+                    } else if (planeState == stateId) {
+                        candRe = planeRe;
+                        candIm = planeIm;
+                    } else if (candidateBytes + planeBytes <= CANDIDATE_SPECTRA_BUDGET) {
+                        candRe = new double[n * n];
+                        candIm = new double[n * n];
+                        indicatorPlane(states, width, depth, stateId, n, candRe, candIm);
+                        Fft2D.forward(candRe, candIm, n);
+                        candidateSpectra.put(stateId, new double[][]{candRe, candIm});
+                        candidateBytes += planeBytes;
+                    } else {
+                        indicatorPlane(states, width, depth, stateId, n, planeRe, planeIm);
+                        Fft2D.forward(planeRe, planeIm, n);
+                        planeState = stateId;
+                        candRe = planeRe;
+                        candIm = planeIm;
+                    }
+
+                    int[] t = TRANSFORMS[variant];
+                    int slot = variant - first;
+                    used[slot] = true;
+                    double[] accRe = sumRe[slot];
+                    double[] accIm = sumIm[slot];
+
+                    // conj(F_ref(Tᵀk)) * F_candidate(k), accumulated over all states
+                    for (int kz = 0; kz < n; kz++) {
+                        for (int kx = 0; kx < n; kx++) {
+                            int source = (((t[1] * kx + t[3] * kz) & mask) << shift) | ((t[0] * kx + t[2] * kz) & mask);
+                            int k = (kz << shift) | kx;
+                            double ar = refRe[source];
+                            double ai = refIm[source];
+                            accRe[k] += ar * candRe[k] + ai * candIm[k];
+                            accIm[k] += ar * candIm[k] - ai * candRe[k];
+                        }
+                    }
+                }
+            }
+
+            // Back to offsets; the highest peak over all variants wins
+            for (int variant = first; variant < last; variant++) {
+                int slot = variant - first;
+                if (!used[slot]) continue;
+
+                Fft2D.inverse(sumRe[slot], sumIm[slot], n);
+                double[] correlation = sumRe[slot];
+                for (int k = 0; k < correlation.length; k++) {
+                    // Counts come back as integers plus rounding noise; rounding keeps ties on the earlier variant
+                    long count = Math.round(correlation[k]);
+                    if (count > bestCount) {
+                        bestCount = count;
+                        bestVariant = variant;
+                        bestOffset = k;
+                    }
+                }
+            }
+        }
+
+        if (bestCount == 0) {
+            return new Alignment(0, 0, 0, 0, reference.getCount() + candidate.getCount());
+        }
+
+        return verify(candidate, bestVariant, bestOffset & mask, bestOffset >> shift, n);
+    }
+
+    /**
+     * Exact count at one variant and wrapped offset, which also gives the overlap for the union
+     */
+    private Alignment verify(TopLayerGrid candidate, int variant, int shiftX, int shiftZ, int n) {
+        int[] t = TRANSFORMS[variant];
+        int mask = n - 1;
+        int[] refStates = reference.getStates();
+        int refWidth = reference.getWidth();
+        int width = candidate.getWidth();
+        int depth = candidate.getDepth();
+        int[] states = candidate.getStates();
+
+        Map<Integer, Integer> transformed = new HashMap<>();
+        for (int i = 0; i < referenceIds.length; i++) {
+            transformed.put(referenceIds[i], transformedIds[variant][i]);
+        }
+
+        int overlap = 0;
+        int matching = 0;
+        int minX = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+
+        for (int cell = 0; cell < refStates.length; cell++) {
+            if (refStates[cell] == TopLayerGrid.EMPTY) continue;
+
+            int x = cell % refWidth;
+            int z = cell / refWidth;
+            int tx = t[0] * x + t[1] * z;
+            int tz = t[2] * x + t[3] * z;
+            minX = Math.min(minX, tx);
+            minZ = Math.min(minZ, tz);
+
+            int cx = (tx + shiftX) & mask;
+            int cz = (tz + shiftZ) & mask;
+            if (cx >= width || cz >= depth) continue;
+
+            int candidateState = states[cz * width + cx];
+            if (candidateState == TopLayerGrid.EMPTY) continue;
+
+            overlap++;
+            if (candidateState == transformed.get(refStates[cell])) {
+                matching++;
+            }
+        }
+
+        // Where the turned reference's min corner ends up in the candidate, unwrapped
+        int offsetX = (minX + shiftX) & mask;
+        int offsetZ = (minZ + shiftZ) & mask;
+        if (offsetX >= width) offsetX -= n;
+        if (offsetZ >= depth) offsetZ -= n;
+
+        return new Alignment(variant, offsetX, offsetZ, matching,
+                reference.getCount() + candidate.getCount() - overlap);
+    }
+
+    /**
+     * Whether any variant in the pass turns reference state i into a state the candidate has
+     */
+    private boolean anyInPass(int i, int[] candidateIds, int first, int last) {
+        for (int variant = first; variant < last; variant++) {
+            if (Arrays.binarySearch(candidateIds, transformedIds[variant][i]) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The reference's spectra for a plane size, transformed on first use and kept while they fit
+     * {@link #SPECTRA_BUDGET}; null when they don't, so the caller transforms each one as needed
+     */
+    private synchronized double[][] cachedSpectra(int n) {
+        double[][] cached = spectra.get(n);
+        if (cached != null) {
+            return cached;
+        }
+
+        long bytes = (long) referenceIds.length * n * n * 16;
+        if (spectraBytes + bytes > SPECTRA_BUDGET) {
+            return null;
+        }
+
+        cached = referenceSpectra(n);
+        spectra.put(n, cached);
+        spectraBytes += bytes;
+        return cached;
+    }
+
+    private double[][] referenceSpectra(int n) {
+        double[][] result = new double[referenceIds.length * 2][];
+        for (int i = 0; i < referenceIds.length; i++) {
+            double[] re = new double[n * n];
+            double[] im = new double[n * n];
+            indicatorPlane(reference.getStates(), reference.getWidth(), reference.getDepth(), referenceIds[i], n, re, im);
+            Fft2D.forward(re, im, n);
+            result[i] = re;
+            result[referenceIds.length + i] = im;
+        }
+        return result;
+    }
+
+    /**
+     * 1 where the grid is topped by the state, 0 elsewhere, placed at the origin of an n x n plane
+     */
+    private static void indicatorPlane(int[] states, int width, int depth, int stateId, int n,
+                                       double[] re, double[] im) {
+        Arrays.fill(re, 0.0);
+        Arrays.fill(im, 0.0);
+        for (int z = 0; z < depth; z++) {
+            for (int x = 0; x < width; x++) {
+                if (states[z * width + x] == stateId) {
+                    re[z * n + x] = 1.0;
+                }
+            }
+        }
+    }
+
+    private static int[] distinctIds(int[] states) {
+        return Arrays.stream(states).filter(id -> id != TopLayerGrid.EMPTY).distinct().sorted().toArray();
+    }
+
+    /**
+     * The block state a variant turns this one into, so stairs and logs still match after rotating
+     */
+    private static int transformState(int rawId, int variant) {
+        BlockState state = Block.getStateFromRawId(rawId);
+        if (state == null) {
+            return rawId;
+        }
+        if (variant >= 4) {
+            state = state.mirror(BlockMirror.FRONT_BACK);
+        }
+        return Block.getRawIdFromState(state.rotate(ROTATIONS[variant % 4]));
+    }
+}
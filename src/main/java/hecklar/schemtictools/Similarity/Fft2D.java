@@ -0,0 +1,101 @@
+package hecklar.schemtictools.Similarity;
+
+/**
+ * In-place radix-2 FFT over square n x n complex planes, stored row-major as separate real and imaginary arrays.
+ * The inverse transform is scaled by 1 / n², so a forward and inverse round trip returns the input.
+ */
+final class Fft2D {
+    private Fft2D() {
+    }
+
+    static int nextPowerOfTwo(int value) {
+        int n = 1;
+        while (n < value) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    static void forward(double[] re, double[] im, int n) {
+        transform(re, im, n, false);
+    }
+
+    static void inverse(double[] re, double[] im, int n) {
+        transform(re, im, n, true);
+
+        double scale = 1.0 / ((double) n * n);
+        for (int i = 0; i < re.length; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    private static void transform(double[] re, double[] im, int n, boolean inverse) {
+        double[] cos = new double[n / 2];
+        double[] sin = new double[n / 2];
+        for (int i = 0; i < n / 2; i++) {
+            double angle = (inverse ? 2 : -2) * Math.PI * i / n;
+            cos[i] = Math.cos(angle);
+            sin[i] = Math.sin(angle);
+        }
+
+        // Rows in place, then every column through a scratch line
+        for (int row = 0; row < n; row++) {
+            transformLine(re, im, row * n, n, cos, sin);
+        }
+
+        double[] lineRe = new double[n];
+        double[] lineIm = new double[n];
+        for (int column = 0; column < n; column++) {
+            for (int i = 0; i < n; i++) {
+                lineRe[i] = re[i * n + column];
+                lineIm[i] = im[i * n + column];
+            }
+            transformLine(lineRe, lineIm, 0, n, cos, sin);
+            for (int i = 0; i < n; i++) {
+                re[i * n + column] = lineRe[i];
+                im[i * n + column] = lineIm[i];
+            }
+        }
+    }
+
+    private static void transformLine(double[] re, double[] im, int offset, int n, double[] cos, double[] sin) {
+        // Bit-reversal permutation
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+
+            if (i < j) {
+                double t = re[offset + i];
+                re[offset + i] = re[offset + j];
+                re[offset + j] = t;
+                t = im[offset + i];
+                im[offset + i] = im[offset + j];
+                im[offset + j] = t;
+            }
+        }
+
+        // Butterflies
+        for (int length = 2; length <= n; length <<= 1) {
+            int half = length >> 1;
+            int step = n / length;
+            for (int start = 0; start < n; start += length) {
+                for (int k = 0; k < half; k++) {
+                    int a = offset + start + k;
+                    int b = a + half;
+                    double wr = cos[k * step];
+                    double wi = sin[k * step];
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package hecklar.schemtictools.Similarity;
+
+import fi.dy.masa.litematica.schematic.LitematicaSchematic;
+import hecklar.schemtictools.Index.CacheFiles;
+import hecklar.schemtictools.Index.FileStamp;
+import hecklar.schemtictools.Scan.ScanJob;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Top-layer grids of every compared schematic, kept next to the schematics so a comparison never has to
+ * decompress a file that hasn't changed since the last one.
+ *
+ * The grids live uncompressed in an append-only data file as two short planes (state ids, heights),
+ * each followed by its {@link LayerPyramid}. Completed windows of the file are memory-mapped once and shared
+ * by every read from them, so the file can grow past what one mapping can hold without a mapping per entry.
+ * A small gzip table maps each file's stamp to its grid's offset.
+ * Changed files get a fresh grid appended; once the dead space outgrows the live grids, the next save
+ * copies the live ones into a new data file.
+ */
+public class FingerprintStore {
+    private static final Logger LOGGER = LogManager.getLogger("FingerprintStore");
+    private static final String TABLE_NAME = ".schematic-tools-fingerprints.index";
+    private static final String DATA_PREFIX = ".schematic-tools-fingerprints-";
+    private static final int MAGIC = 0x53544650; // "STFP"
+    private static final int FORMAT_VERSION = 3;
+
+    // Don't bother compacting until there is a meaningful amount to reclaim
+    private static final long MIN_COMPACT_BYTES = 16L << 20;
+    // Size of each shared mapping of the data file
+    private static final int WINDOW_BYTES = 64 << 20;
+
+    private static final Map<File, FingerprintStore> LOADED = new HashMap<>();
+
+    private final File baseDir;
+    private final File table;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object lock = new Object(); // Guards appending, compacting and saving
+    private DataFile data;
+    private long deadBytes = 0;
+    private volatile boolean dirty = false;
+
+    private static class Entry {
+        final FileStamp stamp;
+        final DataFile data;
+        final long offset;
+        final int width;
+        final int depth;
+        final int pyramidBytes;
+
+        Entry(FileStamp stamp, DataFile data, long offset, int width, int depth, int pyramidBytes) {
+            this.stamp = stamp;
+            this.data = data;
+            this.offset = offset;
+            this.width = width;
+            this.depth = depth;
+            this.pyramidBytes = pyramidBytes;
+        }
+
+        long gridBytes() {
+            return (long) width * depth * 4;
+        }
+
+        long bytes() {
+            return gridBytes() + pyramidBytes;
+        }
+    }
+
+    /**
+     * One generation of the data file. Entries keep the generation they were written to, so grids stay
+     * readable from the old mapping while a compaction switches to a new file.
+     */
+    private static class DataFile {
+        final int generation;
+        final File file;
+        final FileChannel channel;
+        // Windows only ever get appended after, so a mapping stays valid for the file's lifetime
+        final Map<Long, ByteBuffer> windows = new ConcurrentHashMap<>();
+
+        DataFile(File baseDir, int generation) throws IOException {
+            this.generation = generation;
+            this.file = new File(baseDir, DATA_PREFIX + generation + ".data");
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * These bytes as a slice of their window's mapping. Entries crossing a window edge, or in the last
+         * window while it is still being appended to, are read into a heap buffer instead.
+         */
+        ByteBuffer view(long offset, long length) throws IOException {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Fingerprint entry too large to read: " + length + " bytes");
+            }
+
+            long window = offset / WINDOW_BYTES;
+            long windowStart = window * WINDOW_BYTES;
+            if (offset + length <= windowStart + WINDOW_BYTES) {
+                ByteBuffer mapped = windows.get(window);
+                if (mapped == null && windowStart + WINDOW_BYTES <= channel.size()) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, WINDOW_BYTES);
+                    ByteBuffer existing = windows.putIfAbsent(window, mapped);
+                    if (existing != null) {
+                        mapped = existing;
+                    }
+                }
+                if (mapped != null) {
+                    return mapped.slice((int) (offset - windowStart), (int) length);
+                }
+            }
+
+            ByteBuffer bytes = ByteBuffer.allocate((int) length);
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, offset + bytes.position()) < 0) {
+                    throw new EOFException("Fingerprint data ends before offset " + (offset + length));
+                }
+            }
+            return bytes.flip();
+        }
+
+        long append(ByteBuffer bytes) throws IOException {
+            long offset = channel.size();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, offset + bytes.position());
+            }
+            return offset;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close fingerprint data", e);
+            }
+        }
+    }
+
+    private FingerprintStore(File baseDir) {
+        this.baseDir = baseDir;
+        this.table = new File(baseDir, TABLE_NAME);
+    }
+
+    /**
+     * The store for a base directory, read from disk the first time it is needed
+     */
+    public static synchronized FingerprintStore get(File baseDir) {
+        return LOADED.computeIfAbsent(baseDir.getAbsoluteFile(), FingerprintStore::load);
+    }
+
+    private static FingerprintStore load(File baseDir) {
+        FingerprintStore store = new FingerprintStore(baseDir);
+
+        if (store.table.isFile()) {
+            try {
+                CacheFiles.read(store.table, in -> {
+                    if (in.readInt() != MAGIC) {
+                        LOGGER.info("Ignoring fingerprint store with an unknown format");
+                        return null;
+                    }
+
+                    // Every format version so far starts with the version and the data file's generation
+                    int version = in.readInt();
+                    int generation = in.readInt();
+                    if (version != FORMAT_VERSION) {
+                        LOGGER.info("Ignoring fingerprint store from format version " + version);
+                        new File(baseDir, DATA_PREFIX + generation + ".data").delete();
+                        return null;
+                    }
+                    if (!CacheFiles.readStateIdKey(in)) {
+                        // Grids hold raw state ids, which mean other blocks now; start over
+                        LOGGER.info("Ignoring fingerprint store written with other block state ids");
+                        new File(baseDir, DATA_PREFIX + generation + ".data").delete();
+                        return null;
+                    }
+
+                    store.data = new DataFile(baseDir, generation);
+                    long dataSize = store.data.channel.size();
+                    long liveBytes = 0;
+
+                    int entryCount = in.readInt();
+                    for (int i = 0; i < entryCount; i++) {
+                        FileStamp stamp = FileStamp.read(in);
+                        long offset = in.readLong();
+                        int width = in.readInt();
+                        int depth = in.readInt();
+                        int pyramidBytes = in.readInt();
+
+                        // Grids missing from the data file are dropped and extracted again
+                        Entry entry = new Entry(stamp, store.data, offset, width, depth, pyramidBytes);
+                        if (offset + entry.bytes() <= dataSize) {
+                            store.entries.put(stamp.path, entry);
+                            liveBytes += entry.bytes();
+                        }
+                    }
+
+                    // Grids appended after the last save aren't in the table
+                    store.deadBytes = Math.max(0, dataSize - liveBytes);
+                    return null;
+                });
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Failed to read fingerprint store, rebuilding it", e);
+                store.entries.clear();
+                if (store.data != null) {
+                    store.data.close();
+                    store.data = null;
+                }
+            }
+        }
+
+        if (store.data == null) {
+            try {
+                store.data = new DataFile(baseDir, 1);
+                store.data.channel.truncate(0);
+                store.deadBytes = 0;
+            } catch (IOException e) {
+                // Comparisons still work, they just extract every schematic
+                LOGGER.error("Failed to create fingerprint data file", e);
+            }
+        }
+
+        return store;
+    }
+
+    /**
+     * The top-layer grid of a schematic: read from the mapping while the file is unchanged,
+     * otherwise extracted from the schematic and appended. Unreadable schematics give an empty grid.
+     */
+    public TopLayerGrid grid(File schematicFile, ScanJob job) {
+        FileStamp stamp = FileStamp.of(baseDir, schematicFile);
+
+        Entry entry = entries.get(stamp.path);
+        if (entry != null && entry.stamp.matches(stamp)) {
+            try {
+                return read(entry);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Failed to read fingerprint of " + stamp.path + ", extracting it again", e);
+            }
+        }
+
+        TopLayerGrid grid = extract(schematicFile, job);
+        store(stamp, grid);
+        return grid;
+    }
+
+    /**
+     * The coarse summaries of a schematic's top layer. For an unchanged file only these bytes are read
+     * from the mapping, not the grid itself.
+     */
+    public LayerPyramid pyramid(File schematicFile, ScanJob job) {
+        FileStamp stamp = FileStamp.of(baseDir, schematicFile);
+
+        Entry entry = entries.get(stamp.path);
+        if (entry == null || !entry.stamp.matches(stamp)) {
+            TopLayerGrid grid = grid(schematicFile, job);
+            entry = entries.get(stamp.path);
+            if (entry == null || !entry.stamp.matches(stamp)) {
+                return LayerPyramid.of(grid); // Couldn't be stored
+            }
+        }
+
+        try {
+            return LayerPyramid.wrap(entry.data.view(entry.offset + entry.gridBytes(), entry.pyramidBytes));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to read layer pyramid of " + stamp.path, e);
+            return LayerPyramid.of(grid(schematicFile, job));
+        }
+    }
+
+    private static TopLayerGrid extract(File schematicFile, ScanJob job) {
+        try {
+            LitematicaSchematic schematic = LitematicaSchematic.createFromFile(
+                    schematicFile.getParentFile().toPath().toFile(),
+                    schematicFile.getName()
+            );
+
+            if (schematic == null) {
+                LOGGER.warn("Failed to load schematic: " + schematicFile.getName());
+                return TopLayerGrid.empty();
+            }
+            return TopLayerGrid.extract(schematic, job);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // Still remembered, so a broken schematic isn't retried until it changes
+            LOGGER.error("Error extracting top layer: " + schematicFile.getName(), e);
+            return TopLayerGrid.empty();
+        }
+    }
+
+    private TopLayerGrid read(Entry entry) throws IOException {
+        int cells = entry.width * entry.depth;
+        if (cells == 0) {
+            return TopLayerGrid.empty();
+        }
+
+        ShortBuffer planes = entry.data.view(entry.offset, entry.gridBytes()).asShortBuffer();
+
+        int[] states = new int[cells];
+        int[] heights = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            states[i] = planes.get(i);
+        }
+        for (int i = 0; i < cells; i++) {
+            heights[i] = planes.get(cells + i);
+        }
+        return TopLayerGrid.of(entry.width, entry.depth, states, heights);
+    }
+
+    private void store(FileStamp stamp, TopLayerGrid grid) {
+        int cells = grid.getWidth() * grid.getDepth();
+        byte[] pyramid = LayerPyramid.encode(grid);
+        ByteBuffer bytes = ByteBuffer.allocate(cells * 4 + pyramid.length);
+        ShortBuffer planes = bytes.asShortBuffer();
+
+        for (int state : grid.getStates()) {
+            if (state > Short.MAX_VALUE) {
+                return; // Doesn't fit the packed planes, extract it every time instead
+            }
+            planes.put((short) state);
+        }
+        for (int height : grid.getHeights()) {
+            if (height > Short.MAX_VALUE) {
+                return;
+            }
+            planes.put((short) height);
+        }
+        bytes.position(cells * 4);
+        bytes.put(pyramid);
+        bytes.flip();
+
+        synchronized (lock) {
+            if (data == null) {
+                return;
+            }
+            try {
+                long offset = data.append(bytes);
+                Entry previous = entries.put(stamp.path,
+                        new Entry(stamp, data, offset, grid.getWidth(), grid.getDepth(), pyramid.length));
+                if (previous != null && previous.data == data) {
+                    deadBytes += previous.bytes();
+                }
+                dirty = true;
+            } catch (IOException e) {
+                LOGGER.warn("Failed to store fingerprint of " + stamp.path, e);
+            }
+        }
+    }
+
+    /**
+     * Forget files under the directory prefix that are no longer in {@code presentPaths}
+     */
+    public int retainUnder(String directoryPrefix, Set<String> presentPaths) {
+        int removed = 0;
+        synchronized (lock) {
+            for (Entry entry : new ArrayList<>(entries.values())) {
+                if (entry.stamp.isUnder(directoryPrefix) && !presentPaths.contains(entry.stamp.path)) {
+                    entries.remove(entry.stamp.path);
+                    if (entry.data == data) {
+                        deadBytes += entry.bytes();
+                    }
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                dirty = true;
+            }
+        }
+        return removed;
+    }
+
+    public void save() throws IOException {
+        synchronized (lock) {
+            if (!dirty || data == null) {
+                return;
+            }
+
+            long liveBytes = 0;
+            for (Entry entry : entries.values()) {
+                liveBytes += entry.bytes();
+            }
+            if (deadBytes > MIN_COMPACT_BYTES && deadBytes > liveBytes) {
+                compact();
+            }
+
+            data.channel.force(false);
+            DataFile current = data;
+            List<Entry> snapshot = new ArrayList<>(entries.values());
+
+            CacheFiles.writeAtomically(table, out -> {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(current.generation);
+                CacheFiles.writeStateIdKey(out);
+
+                // Entries from an older generation can't be in this table; they'll be extracted again
+                int count = 0;
+                for (Entry entry : snapshot) {
+                    if (entry.data == current) count++;
+                }
+                out.writeInt(count);
+
+                for (Entry entry : snapshot) {
+                    if (entry.data != current) continue;
+                    entry.stamp.write(out);
+                    out.writeLong(entry.offset);
+                    out.writeInt(entry.width);
+                    out.writeInt(entry.depth);
+                    out.writeInt(entry.pyramidBytes);
+                }
+            });
+
+            dirty = false;
+        }
+    }
+
+    /**
+     * Copy the live grids into the next generation's data file and switch to it
+     */
+    private void compact() throws IOException {
+        DataFile previous = data;
+        DataFile next = new DataFile(baseDir, previous.generation + 1);
+        next.channel.truncate(0);
+
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            long offset = next.append(entry.data.view(entry.offset, entry.bytes()));
+            entries.put(entry.stamp.path,
+                    new Entry(entry.stamp, next, offset, entry.width, entry.depth, entry.pyramidBytes));
+        }
+
+        data = next;
+        deadBytes = 0;
+        previous.close();
+
+        // Mappings of the old file may still be in use; where the OS won't delete it yet, leave it for exit
+        if (!previous.file.delete()) {
+            previous.file.deleteOnExit();
+        }
+        LOGGER.info("Compacted fingerprint store into " + next.file.getName());
+    }
+}
@@ -0,0 +1,225 @@
+package hecklar.schemtictools.Similarity;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Coarse summaries of a top layer for ruling out candidates before comparing them cell by cell.
+ * Each level splits the layer into square cells and keeps a histogram of block states per cell;
+ * the first level is a single cell covering the whole layer.
+ *
+ * Since grids are compared aligned at their min corner, two top blocks can only match when they fall into
+ * the same cell at every level. Summing {@code min(countA, countB)} per state and per cell therefore
+ * bounds the matches from above, and the occupied columns per cell bound the shared positions.
+ * Finer levels give tighter bounds.
+ *
+ * The encoded form is stored in the fingerprint store and decoded one level at a time, so a rejected
+ * candidate only costs reading its coarsest histograms.
+ */
+public class LayerPyramid {
+    // Cell sizes from coarsest to finest; the first covers any layer in one cell
+    private static final int[] CELL_SIZES = {1 << 15, 16, 8};
+    public static final int LEVELS = CELL_SIZES.length;
+
+    private final ByteBuffer data; // Absolute reads only, so a mapped buffer can be shared between threads
+    private final int count;
+    private final Level[] decoded = new Level[LEVELS];
+
+    /**
+     * One decoded level: per cell, the sorted state ids in {@code keys[start[cell]..start[cell + 1])} and their counts
+     */
+    public static class Level {
+        final int cellsX;
+        final int cellsZ;
+        final int[] start;
+        final int[] keys;
+        final int[] counts;
+
+        Level(int cellsX, int cellsZ, int[] start, int[] keys, int[] counts) {
+            this.cellsX = cellsX;
+            this.cellsZ = cellsZ;
+            this.start = start;
+            this.keys = keys;
+            this.counts = counts;
+        }
+    }
+
+    private LayerPyramid(ByteBuffer data) {
+        this.data = data;
+        this.count = data.getInt(0);
+    }
+
+    public static LayerPyramid wrap(ByteBuffer data) {
+        return new LayerPyramid(data);
+    }
+
+    public static LayerPyramid of(TopLayerGrid grid) {
+        return wrap(ByteBuffer.wrap(encode(grid)));
+    }
+
+    /**
+     * Layout: top block count, level count, level offsets, then per level the cell counts along X and Z,
+     * the cell start indices and the (state id, count) entries
+     */
+    static byte[] encode(TopLayerGrid grid) {
+        int width = grid.getWidth();
+        int depth = grid.getDepth();
+        int[] states = grid.getStates();
+
+        int[][] levelInts = new int[LEVELS][];
+        for (int level = 0; level < LEVELS; level++) {
+            int size = CELL_SIZES[level];
+            int cellsX = Math.max(1, (width + size - 1) / size);
+            int cellsZ = Math.max(1, (depth + size - 1) / size);
+            int cells = cellsX * cellsZ;
+
+            int[] start = new int[cells + 1];
+            int[] keys = new int[states.length];
+            int[] counts = new int[states.length];
+            int entries = 0;
+            int[] cellStates = new int[Math.min(size, Math.max(width, 1)) * Math.min(size, Math.max(depth, 1))];
+
+            for (int cz = 0; cz < cellsZ; cz++) {
+                for (int cx = 0; cx < cellsX; cx++) {
+                    int cell = cz * cellsX + cx;
+                    start[cell] = entries;
+
+                    // Gather the cell's states, then run-length them in sorted order
+                    int n = 0;
+                    for (int z = cz * size; z < Math.min(depth, (cz + 1) * size); z++) {
+                        for (int x = cx * size; x < Math.min(width, (cx + 1) * size); x++) {
+                            int state = states[z * width + x];
+                            if (state != TopLayerGrid.EMPTY) {
+                                cellStates[n++] = state;
+                            }
+                        }
+                    }
+                    Arrays.sort(cellStates, 0, n);
+
+                    for (int i = 0; i < n; ) {
+                        int j = i;
+                        while (j < n && cellStates[j] == cellStates[i]) j++;
+                        keys[entries] = cellStates[i];
+                        counts[entries] = j - i;
+                        entries++;
+                        i = j;
+                    }
+                }
+            }
+            start[cells] = entries;
+
+            int[] ints = new int[2 + start.length + entries * 2];
+            ints[0] = cellsX;
+            ints[1] = cellsZ;
+            System.arraycopy(start, 0, ints, 2, start.length);
+            for (int i = 0; i < entries; i++) {
+                ints[2 + start.length + i * 2] = keys[i];
+                ints[2 + start.length + i * 2 + 1] = counts[i];
+            }
+            levelInts[level] = ints;
+        }
+
+        int headerInts = 2 + LEVELS;
+        int totalInts = headerInts;
+        for (int[] ints : levelInts) {
+            totalInts += ints.length;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(totalInts * 4);
+        out.putInt(grid.getCount());
+        out.putInt(LEVELS);
+        int offset = headerInts * 4;
+        for (int[] ints : levelInts) {
+            out.putInt(offset);
+            offset += ints.length * 4;
+        }
+        for (int[] ints : levelInts) {
+            for (int value : ints) {
+                out.putInt(value);
+            }
+        }
+        return out.array();
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Decode a level on first use; racing threads decode the same values, so no locking is needed
+     */
+    public Level level(int level) {
+        Level result = decoded[level];
+        if (result != null) {
+            return result;
+        }
+
+        int offset = data.getInt(8 + level * 4);
+        int cellsX = data.getInt(offset);
+        int cellsZ = data.getInt(offset + 4);
+        int cells = cellsX * cellsZ;
+
+        int[] start = new int[cells + 1];
+        for (int i = 0; i <= cells; i++) {
+            start[i] = data.getInt(offset + 8 + i * 4);
+        }
+
+        int entries = start[cells];
+        int entryOffset = offset + 8 + (cells + 1) * 4;
+        int[] keys = new int[entries];
+        int[] counts = new int[entries];
+        for (int i = 0; i < entries; i++) {
+            keys[i] = data.getInt(entryOffset + i * 8);
+            counts[i] = data.getInt(entryOffset + i * 8 + 4);
+        }
+
+        result = new Level(cellsX, cellsZ, start, keys, counts);
+        decoded[level] = result;
+        return result;
+    }
+
+    /**
+     * Highest similarity the two layers could reach in {@link TopLayerComparator}, judged from one level
+     */
+    public static double upperBound(LayerPyramid a, LayerPyramid b, int level) {
+        if (a.count == 0 || b.count == 0) {
+            return 0.0;
+        }
+
+        Level levelA = a.level(level);
+        Level levelB = b.level(level);
+        int cellsX = Math.min(levelA.cellsX, levelB.cellsX);
+        int cellsZ = Math.min(levelA.cellsZ, levelB.cellsZ);
+
+        long maxMatching = 0;
+        long maxShared = 0;
+
+        for (int cz = 0; cz < cellsZ; cz++) {
+            for (int cx = 0; cx < cellsX; cx++) {
+                int cellA = cz * levelA.cellsX + cx;
+                int cellB = cz * levelB.cellsX + cx;
+                int i = levelA.start[cellA], endA = levelA.start[cellA + 1];
+                int j = levelB.start[cellB], endB = levelB.start[cellB + 1];
+                int occupiedA = 0, occupiedB = 0;
+
+                // Merge the two sorted histograms
+                while (i < endA || j < endB) {
+                    if (j >= endB || (i < endA && levelA.keys[i] < levelB.keys[j])) {
+                        occupiedA += levelA.counts[i++];
+                    } else if (i >= endA || levelB.keys[j] < levelA.keys[i]) {
+                        occupiedB += levelB.counts[j++];
+                    } else {
+                        maxMatching += Math.min(levelA.counts[i], levelB.counts[j]);
+                        occupiedA += levelA.counts[i++];
+                        occupiedB += levelB.counts[j++];
+                    }
+                }
+
+                maxShared += Math.min(occupiedA, occupiedB);
+            }
+        }
+
+        // Matches over union grows with both, so the bound takes the most of each
+        return (double) maxMatching / (a.count + b.count - maxShared);
+    }
+}
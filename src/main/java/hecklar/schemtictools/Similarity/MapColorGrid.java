@@ -0,0 +1,182 @@
+package hecklar.schemtictools.Similarity;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.MapColor;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EmptyBlockView;
+
+import java.util.Arrays;
+
+/**
+ * A top layer as a map would show it: one byte per column holding the map color id and the shade,
+ * {@code id * 4 + brightness}, the same packing map items use. The shade comes from the height step
+ * against the column to the north, so a staircased map art and its flat copy look different while two
+ * blocks sharing a map color look the same.
+ *
+ * Grids are compared with a closeness table over all 256 color bytes, so near-identical maps built
+ * from other blocks still score high.
+ */
+public class MapColorGrid {
+    public static final byte NONE = 0; // No block, or a block that is transparent on maps
+
+    // Colors this far apart in RGB (out of ~441) no longer count as close at all
+    private static final double CLOSENESS_RANGE = 96.0;
+    private static final byte[] CLOSENESS = buildClosenessTable();
+
+    // Map color id per block state raw id, filled on first use; -1 = not looked up yet
+    private static final int[] COLOR_IDS = new int[Block.STATE_IDS.size()];
+
+    static {
+        Arrays.fill(COLOR_IDS, -1);
+    }
+
+    private final int width;
+    private final int depth;
+    private final byte[] colors;
+    private final int count;
+
+    public static class Match {
+        public final double matching; // Sum of per-column closeness, 1.0 for the same color
+        public final int union;
+
+        Match(double matching, int union) {
+            this.matching = matching;
+            this.union = union;
+        }
+
+        public double similarity() {
+            return union > 0 ? matching / union : 0.0;
+        }
+    }
+
+    private MapColorGrid(int width, int depth, byte[] colors, int count) {
+        this.width = width;
+        this.depth = depth;
+        this.colors = colors;
+        this.count = count;
+    }
+
+    /**
+     * Shade every top block the way a map does: brighter when it is higher than its northern neighbour,
+     * darker when lower. The northern edge and blocks without a northern neighbour are drawn flat.
+     */
+    public static MapColorGrid of(TopLayerGrid grid) {
+        int width = grid.getWidth();
+        int depth = grid.getDepth();
+        int[] states = grid.getStates();
+        int[] heights = grid.getHeights();
+        byte[] colors = new byte[states.length];
+        int count = 0;
+
+        for (int z = 0; z < depth; z++) {
+            for (int x = 0; x < width; x++) {
+                int cell = z * width + x;
+                if (states[cell] == TopLayerGrid.EMPTY) continue;
+
+                int colorId = colorIdOf(states[cell]);
+                if (colorId == 0) continue;
+
+                MapColor.Brightness shade = MapColor.Brightness.NORMAL;
+                int north = cell - width;
+                if (z > 0 && states[north] != TopLayerGrid.EMPTY) {
+                    if (heights[cell] > heights[north]) {
+                        shade = MapColor.Brightness.HIGH;
+                    } else if (heights[cell] < heights[north]) {
+                        shade = MapColor.Brightness.LOW;
+                    }
+                }
+
+                colors[cell] = (byte) (colorId * 4 + shade.id);
+                count++;
+            }
+        }
+
+        return new MapColorGrid(width, depth, colors, count);
+    }
+
+    private static int colorIdOf(int stateId) {
+        if (stateId < 0 || stateId >= COLOR_IDS.length) {
+            return 0;
+        }
+
+        // Racing workers can only ever write the same value
+        int colorId = COLOR_IDS[stateId];
+        if (colorId < 0) {
+            BlockState state = Block.getStateFromRawId(stateId);
+            colorId = state != null ? state.getMapColor(EmptyBlockView.INSTANCE, BlockPos.ORIGIN).id : 0;
+            COLOR_IDS[stateId] = colorId;
+        }
+        return colorId;
+    }
+
+    /**
+     * Closeness of every pair of color bytes, 255 for the same rendered color down to 0 at
+     * {@link #CLOSENESS_RANGE} apart. Transparent colors aren't close to anything.
+     */
+    private static byte[] buildClosenessTable() {
+        int[] rgb = new int[256];
+        boolean[] visible = new boolean[256];
+        for (int color = 0; color < 256; color++) {
+            MapColor mapColor = MapColor.get(color >> 2);
+            if (mapColor == null || mapColor.id == 0) continue;
+
+            rgb[color] = mapColor.getRenderColor(MapColor.Brightness.validateAndGet(color & 3));
+            visible[color] = true;
+        }
+
+        byte[] table = new byte[256 * 256];
+        for (int a = 0; a < 256; a++) {
+            if (!visible[a]) continue;
+            for (int b = 0; b < 256; b++) {
+                if (!visible[b]) continue;
+
+                int dr = ((rgb[a] >> 16) & 0xFF) - ((rgb[b] >> 16) & 0xFF);
+                int dg = ((rgb[a] >> 8) & 0xFF) - ((rgb[b] >> 8) & 0xFF);
+                int db = (rgb[a] & 0xFF) - (rgb[b] & 0xFF);
+                double distance = Math.sqrt(dr * dr + dg * dg + db * db);
+
+                table[a * 256 + b] = (byte) Math.round(255 * Math.max(0.0, 1.0 - distance / CLOSENESS_RANGE));
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Closeness summed over the columns both grids have, over the union of their columns,
+     * aligned by min corner like {@link TopLayerComparator}
+     */
+    public static Match compare(MapColorGrid a, MapColorGrid b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return new Match(0, a.count + b.count);
+        }
+
+        int overlapWidth = Math.min(a.width, b.width);
+        int overlapDepth = Math.min(a.depth, b.depth);
+        int shared = 0;
+        long closeness = 0;
+
+        for (int z = 0; z < overlapDepth; z++) {
+            int rowA = z * a.width;
+            int rowB = z * b.width;
+            for (int x = 0; x < overlapWidth; x++) {
+                int colorA = a.colors[rowA + x] & 0xFF;
+                int colorB = b.colors[rowB + x] & 0xFF;
+                if (colorA == NONE || colorB == NONE) continue;
+
+                shared++;
+                closeness += CLOSENESS[(colorA << 8) | colorB] & 0xFF;
+            }
+        }
+
+        return new Match(closeness / 255.0, a.count + b.count - shared);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+}
@@ -0,0 +1,300 @@
+package hecklar.schemtictools.Similarity;
+
+import hecklar.schemtictools.Index.CacheFiles;
+import hecklar.schemtictools.Index.FileStamp;
+import hecklar.schemtictools.Scan.ScanExecutor;
+import hecklar.schemtictools.Scan.ScanJob;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent MinHash signatures of every schematic's top layer, with LSH buckets built from their bands.
+ * A query only needs exact comparisons against the schematics that share a bucket with the reference,
+ * instead of against the whole directory. Stored next to the schematics and refreshed incrementally
+ * like the block index.
+ */
+public class MinHashIndex {
+    private static final Logger LOGGER = LogManager.getLogger("MinHashIndex");
+    private static final String FILE_NAME = ".schematic-tools-minhash.index";
+    private static final int MAGIC = 0x53544D48; // "STMH"
+    private static final int FORMAT_VERSION = 2;
+
+    private static final Map<File, MinHashIndex> LOADED = new HashMap<>();
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile Map<Long, List<String>> buckets = null; // Rebuilt from the signatures after changes
+    private volatile boolean dirty = false;
+
+    private static class Entry {
+        final FileStamp stamp;
+        final int[] signature; // Null for schematics without any blocks
+
+        Entry(FileStamp stamp, int[] signature) {
+            this.stamp = stamp;
+            this.signature = signature;
+        }
+    }
+
+    public static class Candidate {
+        public final String path;
+        public final double estimate;
+
+        Candidate(String path, double estimate) {
+            this.path = path;
+            this.estimate = estimate;
+        }
+    }
+
+    public static class Pair {
+        public final String first;
+        public final String second;
+        public final double estimate;
+
+        Pair(String first, String second, double estimate) {
+            this.first = first;
+            this.second = second;
+            this.estimate = estimate;
+        }
+    }
+
+    public static class RefreshResult {
+        public final int files;
+        public final int reindexed;
+        public final int removed;
+
+        RefreshResult(int files, int reindexed, int removed) {
+            this.files = files;
+            this.reindexed = reindexed;
+            this.removed = removed;
+        }
+    }
+
+    private MinHashIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The index for a base directory, read from disk the first time it is needed
+     */
+    public static synchronized MinHashIndex get(File baseDir) {
+        return LOADED.computeIfAbsent(baseDir.getAbsoluteFile(), MinHashIndex::load);
+    }
+
+    private static MinHashIndex load(File baseDir) {
+        MinHashIndex index = new MinHashIndex(new File(baseDir, FILE_NAME));
+
+        if (!index.file.isFile()) {
+            return index;
+        }
+
+        try {
+            CacheFiles.read(index.file, in -> {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readInt() != MinHasher.HASHES) {
+                    LOGGER.info("Ignoring MinHash index with an unknown format");
+                    return null;
+                }
+                if (!CacheFiles.readStateIdKey(in)) {
+                    LOGGER.info("Ignoring MinHash index written with other block state ids");
+                    return null;
+                }
+
+                int entryCount = in.readInt();
+                for (int i = 0; i < entryCount; i++) {
+                    FileStamp stamp = FileStamp.read(in);
+                    int[] signature = null;
+                    if (in.readBoolean()) {
+                        signature = new int[MinHasher.HASHES];
+                        for (int j = 0; j < signature.length; j++) {
+                            signature[j] = in.readInt();
+                        }
+                    }
+                    index.entries.put(stamp.path, new Entry(stamp, signature));
+                }
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to read MinHash index, rebuilding it", e);
+            index.entries.clear();
+        }
+
+        return index;
+    }
+
+    /**
+     * Bring the signatures under a directory up to date; new and changed files are hashed on the scan pool
+     */
+    public synchronized RefreshResult refresh(File baseDir, File directory, ScanJob job) throws Exception {
+        List<File> schematicFiles = ScanExecutor.findAllSchematics(directory);
+        List<File> stale = new ArrayList<>();
+        Set<String> seenPaths = new HashSet<>();
+
+        for (File schematicFile : schematicFiles) {
+            FileStamp stamp = FileStamp.of(baseDir, schematicFile);
+            seenPaths.add(stamp.path);
+
+            Entry entry = entries.get(stamp.path);
+            if (entry == null || !entry.stamp.matches(stamp)) {
+                stale.add(schematicFile);
+            }
+        }
+
+        String prefix = FileStamp.directoryPrefix(baseDir, directory);
+        int removed = 0;
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            if (entry.stamp.isUnder(prefix) && !seenPaths.contains(entry.stamp.path)) {
+                entries.remove(entry.stamp.path);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            markChanged();
+        }
+
+        if (!stale.isEmpty()) {
+            ScanExecutor.scan(job, stale, () -> null, (unused, schematicFile) -> indexFile(baseDir, schematicFile, job));
+        }
+
+        return new RefreshResult(schematicFiles.size(), stale.size(), removed);
+    }
+
+    private void indexFile(File baseDir, File schematicFile, ScanJob job) {
+        FileStamp stamp = FileStamp.of(baseDir, schematicFile);
+
+        // Through the fingerprint store, so hashing a directory also prepares it for exact comparisons
+        int[] signature = MinHasher.signature(FingerprintStore.get(baseDir).grid(schematicFile, job));
+
+        entries.put(stamp.path, new Entry(stamp, signature));
+        markChanged();
+    }
+
+    // Called from scan workers while refresh() holds the lock, so this must not synchronize
+    private void markChanged() {
+        dirty = true;
+        buckets = null;
+    }
+
+    /**
+     * Schematics under the directory prefix sharing at least one LSH bucket with the signature,
+     * best estimated similarity first
+     */
+    public synchronized List<Candidate> candidates(int[] signature, String directoryPrefix) {
+        Map<Long, List<String>> bucketView = bucketView();
+        Set<String> paths = new LinkedHashSet<>();
+
+        for (int band = 0; band < MinHasher.BANDS; band++) {
+            List<String> bucket = bucketView.get(MinHasher.bandKey(signature, band));
+            if (bucket == null) continue;
+
+            for (String path : bucket) {
+                if (path.startsWith(directoryPrefix)) {
+                    paths.add(path);
+                }
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            candidates.add(new Candidate(path, MinHasher.estimate(signature, entries.get(path).signature)));
+        }
+        candidates.sort((a, b) -> Double.compare(b.estimate, a.estimate));
+        return candidates;
+    }
+
+    /**
+     * Every pair of schematics under the directory prefix that shares an LSH bucket and whose signatures
+     * agree on at least {@code minEstimate}; each pair is reported once
+     */
+    public synchronized List<Pair> candidatePairs(String directoryPrefix, double minEstimate) {
+        Map<Long, List<String>> bucketView = bucketView();
+        Map<String, Integer> ids = new HashMap<>();
+        LongSet seen = new LongOpenHashSet();
+        List<Pair> pairs = new ArrayList<>();
+
+        for (List<String> bucket : bucketView.values()) {
+            if (bucket.size() < 2) continue;
+
+            List<String> members = new ArrayList<>(bucket.size());
+            for (String path : bucket) {
+                if (path.startsWith(directoryPrefix)) {
+                    members.add(path);
+                }
+            }
+
+            for (int i = 0; i < members.size(); i++) {
+                String first = members.get(i);
+                int firstId = ids.computeIfAbsent(first, path -> ids.size());
+                for (int j = i + 1; j < members.size(); j++) {
+                    String second = members.get(j);
+                    int secondId = ids.computeIfAbsent(second, path -> ids.size());
+
+                    // Pairs share several bands more often than not, so remember which ones were looked at
+                    long key = ((long) Math.min(firstId, secondId) << 32) | Math.max(firstId, secondId);
+                    if (!seen.add(key)) continue;
+
+                    double estimate = MinHasher.estimate(entries.get(first).signature, entries.get(second).signature);
+                    if (estimate >= minEstimate) {
+                        pairs.add(new Pair(first, second, estimate));
+                    }
+                }
+            }
+        }
+
+        return pairs;
+    }
+
+    private Map<Long, List<String>> bucketView() {
+        if (buckets == null) {
+            Map<Long, List<String>> view = new HashMap<>();
+            for (Entry entry : entries.values()) {
+                if (entry.signature == null) continue;
+
+                for (int band = 0; band < MinHasher.BANDS; band++) {
+                    view.computeIfAbsent(MinHasher.bandKey(entry.signature, band), key -> new ArrayList<>())
+                            .add(entry.stamp.path);
+                }
+            }
+            buckets = view;
+        }
+        return buckets;
+    }
+
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+
+        CacheFiles.writeAtomically(file, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(MinHasher.HASHES);
+            CacheFiles.writeStateIdKey(out);
+            out.writeInt(entries.size());
+
+            for (Entry entry : entries.values()) {
+                entry.stamp.write(out);
+                out.writeBoolean(entry.signature != null);
+                if (entry.signature != null) {
+                    for (int value : entry.signature) {
+                        out.writeInt(value);
+                    }
+                }
+            }
+        });
+
+        dirty = false;
+    }
+}
@@ -0,0 +1,231 @@
+package hecklar.schemtictools.Similarity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds where a small top layer (the pattern) appears inside larger ones with 2D Rabin-Karp hashing.
+ * The pattern is cut into square tiles, and only tiles without empty columns are kept, since empty columns
+ * in the pattern match anything. Every row of the other layer gets a rolling hash over the tile width, and
+ * those row hashes are rolled down each column over the tile height, so every placement of every tile is
+ * hashed in linear time. Each tile found votes for the pattern offset it implies.
+ *
+ * With K kept tiles and at most m mismatching blocks allowed, a placement reaching the minimum similarity
+ * has at least K - m tiles matching exactly. Tiles are made small enough that K > m, so only offsets with
+ * that many votes are checked cell by cell, and no placement reaching the minimum is missed.
+ * Only block states are compared, not heights.
+ */
+public class PatternFinder {
+    // Hashes wrap around 2^64; the odd bases keep them spread, and collisions are caught by the cell check
+    private static final long ROW_BASE = 0x9E3779B97F4A7C15L;
+    private static final long COLUMN_BASE = 0xC2B2AE3D27D4EB4FL;
+    // Hashed values are state ids shifted up by 2, so neither an empty column nor state 0 hashes as zero
+    private static final int EMPTY_VALUE = TopLayerGrid.EMPTY + 2;
+
+    private final int width;
+    private final int depth;
+    private final int[] values;
+    private final int count;
+    private final int allowedMisses;
+
+    private final int tileSize;
+    private final int minVotes;
+    // Tile corners (x, z) in the pattern by tile hash
+    private final Map<Long, List<int[]>> tiles = new HashMap<>();
+
+    public static class Hit {
+        public final int offsetX;
+        public final int offsetZ;
+        public final int matching;
+        public final int total;
+
+        Hit(int offsetX, int offsetZ, int matching, int total) {
+            this.offsetX = offsetX;
+            this.offsetZ = offsetZ;
+            this.matching = matching;
+            this.total = total;
+        }
+
+        public double similarity() {
+            return total > 0 ? (double) matching / total : 0.0;
+        }
+    }
+
+    public PatternFinder(TopLayerGrid pattern, double minSimilarity) {
+        this.width = pattern.getWidth();
+        this.depth = pattern.getDepth();
+        this.values = cellValues(pattern.getStates());
+        this.count = pattern.getCount();
+        this.allowedMisses = (int) Math.floor(count * (1.0 - minSimilarity));
+
+        // Largest tiles that still leave more full tiles than allowed mismatches; single blocks always do
+        int size = Math.max(1, (int) Math.sqrt((double) count / (allowedMisses + 1)));
+        List<int[]> corners = fullTiles(size);
+        while (size > 1 && corners.size() <= allowedMisses) {
+            size--;
+            corners = fullTiles(size);
+        }
+        this.tileSize = size;
+        this.minVotes = Math.max(1, corners.size() - allowedMisses);
+
+        for (int[] corner : corners) {
+            long hash = 0;
+            for (int z = corner[1]; z < corner[1] + size; z++) {
+                long rowHash = 0;
+                for (int x = corner[0]; x < corner[0] + size; x++) {
+                    rowHash = rowHash * ROW_BASE + values[z * width + x];
+                }
+                hash = hash * COLUMN_BASE + rowHash;
+            }
+            tiles.computeIfAbsent(hash, key -> new ArrayList<>()).add(corner);
+        }
+    }
+
+    /**
+     * Corners of the size x size tiles on the pattern's grid that have no empty column
+     */
+    private List<int[]> fullTiles(int size) {
+        List<int[]> corners = new ArrayList<>();
+        for (int tileZ = 0; tileZ + size <= depth; tileZ += size) {
+            for (int tileX = 0; tileX + size <= width; tileX += size) {
+                boolean full = true;
+                for (int z = tileZ; z < tileZ + size && full; z++) {
+                    for (int x = tileX; x < tileX + size; x++) {
+                        if (values[z * width + x] == EMPTY_VALUE) {
+                            full = false;
+                            break;
+                        }
+                    }
+                }
+                if (full) {
+                    corners.add(new int[]{tileX, tileZ});
+                }
+            }
+        }
+        return corners;
+    }
+
+    /**
+     * Every placement of the pattern inside the layer reaching the minimum similarity, best first
+     */
+    public List<Hit> find(TopLayerGrid layer) {
+        List<Hit> hits = new ArrayList<>();
+        int layerWidth = layer.getWidth();
+        int layerDepth = layer.getDepth();
+        if (count == 0 || layerWidth < width || layerDepth < depth) {
+            return hits;
+        }
+
+        int[] layerValues = cellValues(layer.getStates());
+        int placementsX = layerWidth - width + 1;
+        int placementsZ = layerDepth - depth + 1;
+        int tilesX = layerWidth - tileSize + 1;
+        long[] rowHashes = rowHashes(layerValues, layerWidth, layerDepth, tileSize);
+
+        // Roll the row hashes down each column; every tile found votes for the offset it implies
+        int[] votes = new int[placementsX * placementsZ];
+        long power = pow(COLUMN_BASE, tileSize - 1);
+        for (int x = 0; x < tilesX; x++) {
+            long hash = 0;
+            for (int z = 0; z < layerDepth; z++) {
+                if (z >= tileSize) {
+                    hash -= rowHashes[(z - tileSize) * tilesX + x] * power;
+                }
+                hash = hash * COLUMN_BASE + rowHashes[z * tilesX + x];
+                if (z < tileSize - 1) continue;
+
+                List<int[]> matches = tiles.get(hash);
+                if (matches == null) continue;
+
+                int top = z - tileSize + 1;
+                for (int[] corner : matches) {
+                    int offsetX = x - corner[0];
+                    int offsetZ = top - corner[1];
+                    if (offsetX >= 0 && offsetX < placementsX && offsetZ >= 0 && offsetZ < placementsZ) {
+                        votes[offsetZ * placementsX + offsetX]++;
+                    }
+                }
+            }
+        }
+
+        for (int placement = 0; placement < votes.length; placement++) {
+            if (votes[placement] < minVotes) continue;
+
+            Hit hit = verify(layerValues, layerWidth, placement % placementsX, placement / placementsX);
+            if (hit != null) {
+                hits.add(hit);
+            }
+        }
+
+        hits.sort((a, b) -> a.matching != b.matching ? Integer.compare(b.matching, a.matching)
+                : a.offsetZ != b.offsetZ ? Integer.compare(a.offsetZ, b.offsetZ) : Integer.compare(a.offsetX, b.offsetX));
+        return hits;
+    }
+
+    /**
+     * Count the pattern's blocks that match at an offset, giving up once the minimum can't be reached
+     */
+    private Hit verify(int[] layerValues, int layerWidth, int offsetX, int offsetZ) {
+        int matching = 0;
+        int misses = 0;
+
+        for (int z = 0; z < depth; z++) {
+            int row = z * width;
+            int layerRow = (z + offsetZ) * layerWidth + offsetX;
+            for (int x = 0; x < width; x++) {
+                int value = values[row + x];
+                if (value == EMPTY_VALUE) continue;
+
+                if (value == layerValues[layerRow + x]) {
+                    matching++;
+                } else if (++misses > allowedMisses) {
+                    return null;
+                }
+            }
+        }
+
+        return new Hit(offsetX, offsetZ, matching, count);
+    }
+
+    private static int[] cellValues(int[] states) {
+        int[] values = new int[states.length];
+        for (int i = 0; i < states.length; i++) {
+            values[i] = states[i] + 2;
+        }
+        return values;
+    }
+
+    /**
+     * Hash of every {@code window}-wide run of every row, {@code width - window + 1} per row
+     */
+    private static long[] rowHashes(int[] values, int width, int depth, int window) {
+        int placements = width - window + 1;
+        long[] hashes = new long[depth * placements];
+        long power = pow(ROW_BASE, window - 1);
+
+        for (int z = 0; z < depth; z++) {
+            int row = z * width;
+            long hash = 0;
+            for (int x = 0; x < width; x++) {
+                if (x >= window) {
+                    hash -= values[row + x - window] * power;
+                }
+                hash = hash * ROW_BASE + values[row + x];
+                if (x >= window - 1) {
+                    hashes[z * placements + x - window + 1] = hash;
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private static long pow(long base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+package hecklar.schemtictools.Similarity;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Compares two top-layer grids in one pass over their overlapping rows.
+ * Two top blocks are at the same position when they share a column and a normalized height;
+ * they match when the block state is also the same. Similarity is matches over the union of positions.
+ *
+ * Rows are compared with the JDK Vector API when the game runs with
+ * {@code --add-modules jdk.incubator.vector}, and with a scalar loop otherwise.
+ */
+public class TopLayerComparator {
+    private static final Logger LOGGER = LogManager.getLogger("SchematicSimilarity");
+
+    // Rows shorter than this aren't worth setting up vectors for
+    private static final int MIN_VECTOR_ROW = 16;
+    private static final boolean VECTORIZED = detectVectorSupport();
+
+    public static class Match {
+        public final int matching;
+        public final int union;
+
+        Match(int matching, int union) {
+            this.matching = matching;
+            this.union = union;
+        }
+
+        public double similarity() {
+            return union > 0 ? (double) matching / union : 0.0;
+        }
+    }
+
+    private TopLayerComparator() {
+    }
+
+    private static boolean detectVectorSupport() {
+        if (!Boolean.parseBoolean(System.getProperty("schematictools.vector", "true"))) {
+            return false;
+        }
+
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            LOGGER.info("jdk.incubator.vector not available, comparing top layers with the scalar loop");
+            return false;
+        }
+
+        try {
+            int lanes = VectorRowKernel.laneCount();
+            LOGGER.info("Comparing top layers with {}-lane int vectors", lanes);
+            return lanes > 1;
+        } catch (LinkageError e) {
+            LOGGER.info("Vector API could not be loaded, comparing top layers with the scalar loop", e);
+            return false;
+        }
+    }
+
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    public static Match compare(TopLayerGrid a, TopLayerGrid b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return new Match(0, a.getCount() + b.getCount());
+        }
+
+        int[] statesA = a.getStates();
+        int[] statesB = b.getStates();
+        int[] heightsA = a.getHeights();
+        int[] heightsB = b.getHeights();
+        int widthA = a.getWidth();
+        int widthB = b.getWidth();
+        int overlapWidth = Math.min(widthA, widthB);
+        int overlapDepth = Math.min(a.getDepth(), b.getDepth());
+
+        if (VECTORIZED && overlapWidth >= MIN_VECTOR_ROW) {
+            int[] counts = new int[2];
+            for (int z = 0; z < overlapDepth; z++) {
+                VectorRowKernel.compareRow(statesA, heightsA, z * widthA, statesB, heightsB, z * widthB,
+                        overlapWidth, counts);
+            }
+            return new Match(counts[1], a.getCount() + b.getCount() - counts[0]);
+        }
+
+        int samePosition = 0;
+        int matching = 0;
+
+        for (int z = 0; z < overlapDepth; z++) {
+            int rowA = z * widthA;
+            int rowB = z * widthB;
+            for (int x = 0; x < overlapWidth; x++) {
+                int stateA = statesA[rowA + x];
+                int stateB = statesB[rowB + x];
+                if (stateA == TopLayerGrid.EMPTY || stateB == TopLayerGrid.EMPTY
+                        || heightsA[rowA + x] != heightsB[rowB + x]) {
+                    continue;
+                }
+
+                samePosition++;
+                if (stateA == stateB) {
+                    matching++;
+                }
+            }
+        }
+
+        // Every position that isn't shared is only in one of the two layers
+        return new Match(matching, a.getCount() + b.getCount() - samePosition);
+    }
+}
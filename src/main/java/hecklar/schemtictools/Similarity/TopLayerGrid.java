@@ -0,0 +1,246 @@
+package hecklar.schemtictools.Similarity;
+
+import fi.dy.masa.litematica.schematic.LitematicaSchematic;
+import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainer;
+import fi.dy.masa.litematica.selection.Box;
+import hecklar.schemtictools.Scan.PackedRegion;
+import hecklar.schemtictools.Scan.ScanJob;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Arrays;
+
+/**
+ * The top (highest non-air) block of every XZ column of a schematic, packed into two primitive planes
+ * over the columns' bounding box: the block state's raw id and the column height.
+ * Both are normalized to the min corner of the top blocks, the same alignment the HashMap based
+ * comparison used, so two grids can be compared cell by cell without building any positions.
+ */
+public class TopLayerGrid {
+    public static final int EMPTY = -1;
+
+    private final int width;  // X
+    private final int depth;  // Z
+    private final int[] states;
+    private final int[] heights;
+    private final int count;
+
+    private TopLayerGrid(int width, int depth, int[] states, int[] heights, int count) {
+        this.width = width;
+        this.depth = depth;
+        this.states = states;
+        this.heights = heights;
+        this.count = count;
+    }
+
+    /**
+     * Extract the top layer of every region. Where regions overlap the higher block wins.
+     */
+    public static TopLayerGrid extract(LitematicaSchematic schematic, ScanJob job) {
+        // First pass: bounding box of all regions in the XZ plane
+        int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+        for (String regionName : schematic.getAreas().keySet()) {
+            LitematicaBlockStateContainer container = schematic.getSubRegionContainer(regionName);
+            Box box = schematic.getAreas().get(regionName);
+            BlockPos regionPos = schematic.getSubRegionPosition(regionName);
+            if (container == null || box == null || regionPos == null) continue;
+
+            BlockPos corner = regionMinCorner(regionPos, box);
+            minX = Math.min(minX, corner.getX());
+            minZ = Math.min(minZ, corner.getZ());
+            maxX = Math.max(maxX, corner.getX() + Math.abs(container.getSize().getX()) - 1);
+            maxZ = Math.max(maxZ, corner.getZ() + Math.abs(container.getSize().getZ()) - 1);
+        }
+
+        if (minX > maxX || minZ > maxZ) {
+            return empty();
+        }
+
+        int boundsWidth = maxX - minX + 1;
+        int boundsDepth = maxZ - minZ + 1;
+        int[] topStates = new int[boundsWidth * boundsDepth];
+        int[] topY = new int[topStates.length];
+        Arrays.fill(topStates, EMPTY);
+        Arrays.fill(topY, Integer.MIN_VALUE);
+
+        // Second pass: top block of each column, straight from the packed palette indices
+        for (String regionName : schematic.getAreas().keySet()) {
+            if (job != null) {
+                job.checkCancelled();
+            }
+
+            LitematicaBlockStateContainer container = schematic.getSubRegionContainer(regionName);
+            Box box = schematic.getAreas().get(regionName);
+            BlockPos regionPos = schematic.getSubRegionPosition(regionName);
+            if (container == null || box == null || regionPos == null) continue;
+
+            PackedRegion region = PackedRegion.of(container);
+
+            BlockState[] palette = region.getPalette();
+            boolean[] air = new boolean[palette.length];
+            int[] stateIds = new int[palette.length];
+            for (int i = 0; i < palette.length; i++) {
+                air[i] = palette[i].isAir();
+                stateIds[i] = Block.getRawIdFromState(palette[i]);
+            }
+
+            BlockPos corner = regionMinCorner(regionPos, box);
+            int offsetX = corner.getX() - minX;
+            int offsetZ = corner.getZ() - minZ;
+
+            for (int z = 0; z < region.getSizeZ(); z++) {
+                for (int x = 0; x < region.getSizeX(); x++) {
+                    for (int y = region.getSizeY() - 1; y >= 0; y--) {
+                        int paletteIndex = region.indexAt(x, y, z);
+                        if (paletteIndex >= palette.length || air[paletteIndex]) continue;
+
+                        int cell = (z + offsetZ) * boundsWidth + (x + offsetX);
+                        int worldY = corner.getY() + y;
+                        if (worldY > topY[cell]) {
+                            topY[cell] = worldY;
+                            topStates[cell] = stateIds[paletteIndex];
+                        }
+                        break; // Found the top block for this column
+                    }
+                }
+            }
+        }
+
+        TopLayerGrid grid = new TopLayerGrid(boundsWidth, boundsDepth, topStates, topY, -1);
+        return grid.normalized(null);
+    }
+
+    /**
+     * A grid from already normalized planes, e.g. read back from the fingerprint store
+     */
+    static TopLayerGrid of(int width, int depth, int[] states, int[] heights) {
+        int count = 0;
+        for (int state : states) {
+            if (state != EMPTY) {
+                count++;
+            }
+        }
+        return new TopLayerGrid(width, depth, states, heights, count);
+    }
+
+    public static TopLayerGrid empty() {
+        return new TopLayerGrid(0, 0, new int[0], new int[0], 0);
+    }
+
+    /**
+     * Region boxes may have negative sizes; the container always starts at the min corner
+     */
+    private static BlockPos regionMinCorner(BlockPos regionPos, Box box) {
+        BlockPos size = box.getSize();
+        return new BlockPos(
+                regionPos.getX() + (size.getX() < 0 ? size.getX() + 1 : 0),
+                regionPos.getY() + (size.getY() < 0 ? size.getY() + 1 : 0),
+                regionPos.getZ() + (size.getZ() < 0 ? size.getZ() + 1 : 0)
+        );
+    }
+
+    /**
+     * Only the columns topped by the block, normalized again to their own min corner
+     */
+    public TopLayerGrid filter(Block block) {
+        return normalized(block);
+    }
+
+    /**
+     * Trim to the bounding box of the kept cells and make heights relative to their lowest top block
+     */
+    private TopLayerGrid normalized(Block onlyBlock) {
+        // Raw ids repeat a lot, so remember which ones belong to the block
+        int lastId = EMPTY;
+        boolean lastKeep = false;
+
+        int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        boolean[] keep = new boolean[states.length];
+        int kept = 0;
+
+        for (int z = 0; z < depth; z++) {
+            for (int x = 0; x < width; x++) {
+                int cell = z * width + x;
+                int stateId = states[cell];
+                if (stateId == EMPTY) continue;
+
+                if (onlyBlock != null) {
+                    if (stateId != lastId) {
+                        lastId = stateId;
+                        BlockState state = Block.getStateFromRawId(stateId);
+                        lastKeep = state != null && state.getBlock() == onlyBlock;
+                    }
+                    if (!lastKeep) continue;
+                }
+
+                keep[cell] = true;
+                kept++;
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minZ = Math.min(minZ, z);
+                maxZ = Math.max(maxZ, z);
+                minY = Math.min(minY, heights[cell]);
+            }
+        }
+
+        if (kept == 0) {
+            return empty();
+        }
+
+        int newWidth = maxX - minX + 1;
+        int newDepth = maxZ - minZ + 1;
+        int[] newStates = new int[newWidth * newDepth];
+        int[] newHeights = new int[newStates.length];
+        Arrays.fill(newStates, EMPTY);
+
+        for (int z = minZ; z <= maxZ; z++) {
+            for (int x = minX; x <= maxX; x++) {
+                int cell = z * width + x;
+                if (!keep[cell]) continue;
+
+                int newCell = (z - minZ) * newWidth + (x - minX);
+                newStates[newCell] = states[cell];
+                newHeights[newCell] = heights[cell] - minY;
+            }
+        }
+
+        return new TopLayerGrid(newWidth, newDepth, newStates, newHeights, kept);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Block state raw ids, row-major by Z ({@code z * width + x}), {@link #EMPTY} where a column has no block
+     */
+    public int[] getStates() {
+        return states;
+    }
+
+    /**
+     * Top block heights relative to the lowest top block, same layout as {@link #getStates()}
+     */
+    public int[] getHeights() {
+        return heights;
+    }
+
+    /**
+     * Number of columns with a top block
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+}
@@ -0,0 +1,26 @@
+package hecklar.schemtictools.mixin;
+
+import hecklar.schemtictools.Beam.BeamChangeQueue;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Report block changes in the client world to the beams. Server block updates, chunk delta packets and
+ * the player's own placements all end up in {@code setBlockState}.
+ */
+@Mixin(World.class)
+public abstract class WorldMixin {
+    @Inject(method = "setBlockState(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/block/BlockState;II)Z", at = @At("RETURN"))
+    private void schematicTools$onSetBlockState(BlockPos pos, BlockState state, int flags, int maxUpdateDepth,
+                                                CallbackInfoReturnable<Boolean> cir) {
+        // The integrated server shares this class; only the client world matters here
+        if (cir.getReturnValueZ() && ((World) (Object) this).isClient()) {
+            BeamChangeQueue.markBlock(pos);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package hecklar.schemtictools.Similarity;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD version of the top-layer row comparison. Only loaded after {@link TopLayerComparator} has checked
+ * that the incubating vector module is present, since touching these classes without it fails to link.
+ * Lives in its own source set so only this class is compiled against the incubator module.
+ */
+final class VectorRowKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    // TopLayerGrid.EMPTY; this source set can't see the main classes
+    private static final int EMPTY = -1;
+
+    private VectorRowKernel() {
+    }
+
+    static int laneCount() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Compare {@code length} cells of two rows, adding shared positions to counts[0] and matching states to counts[1]
+     */
+    static void compareRow(int[] statesA, int[] heightsA, int offsetA,
+                           int[] statesB, int[] heightsB, int offsetB,
+                           int length, int[] counts) {
+        int samePosition = 0;
+        int matching = 0;
+        int x = 0;
+        int bound = SPECIES.loopBound(length);
+
+        for (; x < bound; x += SPECIES.length()) {
+            IntVector stateA = IntVector.fromArray(SPECIES, statesA, offsetA + x);
+            IntVector stateB = IntVector.fromArray(SPECIES, statesB, offsetB + x);
+            IntVector heightA = IntVector.fromArray(SPECIES, heightsA, offsetA + x);
+            IntVector heightB = IntVector.fromArray(SPECIES, heightsB, offsetB + x);
+
+            // A lane is a shared position when both columns have a block at the same height
+            VectorMask<Integer> shared = stateA.compare(VectorOperators.NE, EMPTY)
+                    .and(stateB.compare(VectorOperators.NE, EMPTY))
+                    .and(heightA.compare(VectorOperators.EQ, heightB));
+
+            samePosition += shared.trueCount();
+            matching += shared.and(stateA.compare(VectorOperators.EQ, stateB)).trueCount();
+        }
+
+        // Scalar tail for the lanes that don't fill a whole vector
+        for (; x < length; x++) {
+            int stateA = statesA[offsetA + x];
+            int stateB = statesB[offsetB + x];
+            if (stateA == EMPTY || stateB == EMPTY
+                    || heightsA[offsetA + x] != heightsB[offsetB + x]) {
+                continue;
+            }
+
+            samePosition++;
+            if (stateA == stateB) {
+                matching++;
+            }
+        }
+
+        counts[0] += samePosition;
+        counts[1] += matching;
+    }
+}